@@ -0,0 +1,117 @@
+/**
+ * 连接池基准测试，200线程下对比c3p0和内置JdbcPool的借出归还和简单查询吞吐，
+ * 默认使用H2内存库只测量连接池开销，可通过-Djdbc.url、-Djdbc.user、-Djdbc.password、-Djdbc.driver指定其他数据库
+ *
+ * @class JdbcPoolBenchmark
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(200)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+public class JdbcPoolBenchmark {
+
+	@Param({ "c3p0", "quick" })
+	public String pool;
+
+	@Param({ "20" })
+	public int maxPoolSize;
+
+	private DataSource datasource;
+
+	@Setup
+	public void setup() throws Exception {
+		String url = System.getProperty("jdbc.url", "jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1");
+		String user = System.getProperty("jdbc.user", "sa");
+		String password = System.getProperty("jdbc.password", "");
+		String driver = System.getProperty("jdbc.driver", "org.h2.Driver");
+		if (pool.equals("c3p0")) {
+			ComboPooledDataSource c3p0 = new ComboPooledDataSource();
+			c3p0.setDriverClass(driver);
+			c3p0.setJdbcUrl(url);
+			c3p0.setUser(user);
+			c3p0.setPassword(password);
+			c3p0.setInitialPoolSize(maxPoolSize);
+			c3p0.setMinPoolSize(maxPoolSize);
+			c3p0.setMaxPoolSize(maxPoolSize);
+			c3p0.setCheckoutTimeout(0);
+			datasource = c3p0;
+		} else {
+			Properties properties = new Properties();
+			properties.setProperty("DriverClass", driver);
+			properties.setProperty("CheckoutTimeout", "0");
+			datasource = new JdbcPool(url, user, password, maxPoolSize, maxPoolSize, maxPoolSize, properties);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (datasource instanceof ComboPooledDataSource)
+			((ComboPooledDataSource) datasource).close();
+		else
+			((JdbcPool) datasource).close();
+	}
+
+	/**
+	 * 只借出和归还连接
+	 */
+	@Benchmark
+	public boolean borrow() throws SQLException {
+		Connection connection = datasource.getConnection();
+		try {
+			return connection.getAutoCommit();
+		} finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * 借出连接执行一次简单查询
+	 */
+	@Benchmark
+	public int query() throws SQLException {
+		Connection connection = datasource.getConnection();
+		try {
+			PreparedStatement statement = connection.prepareStatement("SELECT 1");
+			try {
+				ResultSet resultSet = statement.executeQuery();
+				resultSet.next();
+				return resultSet.getInt(1);
+			} finally {
+				statement.close();
+			}
+		} finally {
+			connection.close();
+		}
+	}
+}
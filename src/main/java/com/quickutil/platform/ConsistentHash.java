@@ -0,0 +1,100 @@
+/**
+ * 一致性哈希环，基于md5的ketama算法，支持虚拟节点和{tag}形式的哈希标签
+ *
+ * @class ConsistentHash
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class ConsistentHash<T> {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final ThreadLocal<MessageDigest> md5Local = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	private final TreeMap<Long, T> ring = new TreeMap<Long, T>();
+	private final List<T> nodeList;
+
+	/**
+	 * @param nodes-节点，节点的toString()作为哈希依据，需保证唯一且稳定
+	 * @param virtualNodes-每个节点的虚拟节点数
+	 */
+	public ConsistentHash(Collection<T> nodes, int virtualNodes) {
+		this.nodeList = new ArrayList<T>(nodes);
+		int replicas = Math.max(1, virtualNodes / 4);
+		for (T node : nodeList) {
+			for (int i = 0; i < replicas; i++) {
+				byte[] digest = md5(node.toString() + "-" + i);
+				for (int j = 0; j < 4; j++)
+					ring.put(hash(digest, j), node);
+			}
+		}
+	}
+
+	/**
+	 * 获取key所在节点，key中包含{tag}时只对tag计算哈希
+	 *
+	 * @param key-key
+	 * @return
+	 */
+	public T get(String key) {
+		if (ring.isEmpty())
+			return null;
+		Map.Entry<Long, T> entry = ring.ceilingEntry(hash(md5(hashTag(key)), 0));
+		if (entry == null)
+			entry = ring.firstEntry();
+		return entry.getValue();
+	}
+
+	/**
+	 * 获取全部节点
+	 *
+	 * @return
+	 */
+	public List<T> getNodes() {
+		return new ArrayList<T>(nodeList);
+	}
+
+	/**
+	 * 提取哈希标签，规则与redis cluster一致：取第一个{}之间的非空内容
+	 *
+	 * @param key-key
+	 * @return
+	 */
+	public static String hashTag(String key) {
+		int start = key.indexOf('{');
+		if (start < 0)
+			return key;
+		int end = key.indexOf('}', start + 1);
+		if (end <= start + 1)
+			return key;
+		return key.substring(start + 1, end);
+	}
+
+	private static byte[] md5(String content) {
+		MessageDigest md5 = md5Local.get();
+		md5.reset();
+		return md5.digest(content.getBytes(UTF8));
+	}
+
+	private static long hash(byte[] digest, int index) {
+		return ((long) (digest[3 + index * 4] & 0xFF) << 24) | ((long) (digest[2 + index * 4] & 0xFF) << 16) | ((long) (digest[1 + index * 4] & 0xFF) << 8) | (digest[index * 4] & 0xFF);
+	}
+}
@@ -21,6 +21,27 @@ import com.quickutil.platform.ContextUtil;
 
 public class ContextFilter implements Filter {
 
+	private static volatile JedisRateLimiter rateLimiter;
+	private static volatile RateLimitKey rateLimitKey;
+
+	/**
+	 * 限流key的生成接口，返回null时不限流
+	 */
+	public interface RateLimitKey {
+		String getKey(HttpServletRequest request);
+	}
+
+	/**
+	 * 设置请求限流，超过限额的请求直接返回429
+	 * 
+	 * @param limiter-限流器，为null时关闭限流
+	 * @param key-限流key的生成接口，为null时按连接的远端地址限流，不信任X-Forwarded-For，部署在可信代理之后时需传入按代理头生成key的实现
+	 */
+	public static void setRateLimiter(JedisRateLimiter limiter, RateLimitKey key) {
+		rateLimitKey = key;
+		rateLimiter = limiter;
+	}
+
 	@Override
 	public void init(FilterConfig filterConfig) throws ServletException {
 	}
@@ -29,6 +50,15 @@ public class ContextFilter implements Filter {
 	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
 		ContextUtil.setRequest((HttpServletRequest) request);
 		ContextUtil.setResponse((HttpServletResponse) response);
+		JedisRateLimiter limiter = rateLimiter;
+		if (limiter != null) {
+			RateLimitKey keyResolver = rateLimitKey;
+			String key = keyResolver == null ? "ratelimit:" + request.getRemoteAddr() : keyResolver.getKey((HttpServletRequest) request);
+			if (key != null && !limiter.tryAcquire(key)) {
+				((HttpServletResponse) response).setStatus(429);
+				return;
+			}
+		}
 		chain.doFilter(request, response);
 	}
 
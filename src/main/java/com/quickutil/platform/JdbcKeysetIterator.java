@@ -0,0 +1,190 @@
+/**
+ * 基于键集分页的表遍历器，每页使用where key > 上页末尾key的方式查询，并在后台预取下一页
+ *
+ * @class JdbcKeysetIterator
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+class JdbcKeysetIterator implements Iterator<Map<String, Object>> {
+
+	private final String dbName;
+	private final String tableName;
+	private final List<String> keyColumns;
+	private final String condition;
+	private final List<Object> conditionParams;
+	private final int pageSize;
+	private List<Map<String, Object>> page;
+	private int index = 0;
+	private Future<List<Map<String, Object>>> nextPage;
+
+	/**
+	 * @param dbName-数据库名称
+	 * @param tableName-表名
+	 * @param keyColumns-唯一键字段，按顺序组成排序键
+	 * @param condition-过滤条件，可为空
+	 * @param conditionParams-过滤条件中?对应的参数
+	 * @param pageSize-每页行数
+	 */
+	JdbcKeysetIterator(String dbName, String tableName, List<String> keyColumns, String condition, List<Object> conditionParams, int pageSize) {
+		this.dbName = dbName;
+		this.tableName = tableName;
+		this.keyColumns = keyColumns;
+		this.condition = condition;
+		this.conditionParams = conditionParams;
+		this.pageSize = pageSize;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (page == null) {
+			page = fetch(null);
+			prefetch();
+		}
+		while (index >= page.size()) {
+			if (nextPage == null)
+				return false;
+			page = await(nextPage);
+			index = 0;
+			nextPage = null;
+			prefetch();
+		}
+		return true;
+	}
+
+	@Override
+	public Map<String, Object> next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		return page.get(index++);
+	}
+
+	/**
+	 * 取消尚未完成的预取
+	 */
+	void close() {
+		if (nextPage != null)
+			nextPage.cancel(true);
+	}
+
+	private void prefetch() {
+		if (page.size() < pageSize)
+			return;
+		Map<String, Object> lastRow = page.get(page.size() - 1);
+		final List<Object> lastKey = new ArrayList<Object>();
+		for (String keyColumn : keyColumns)
+			lastKey.add(getKeyValue(lastRow, keyColumn));
+		Callable<List<Map<String, Object>>> callable = new Callable<List<Map<String, Object>>>() {
+			@Override
+			public List<Map<String, Object>> call() throws Exception {
+				return fetch(lastKey);
+			}
+		};
+		try {
+			nextPage = JdbcUtil.getAsyncExecutor(dbName).submit(callable);
+		} catch (RejectedExecutionException e) {
+			FutureTask<List<Map<String, Object>>> task = new FutureTask<List<Map<String, Object>>>(callable);
+			task.run();
+			nextPage = task;
+		}
+	}
+
+	/**
+	 * 读取行中的键值，结果字段名与配置的键名大小写或引号不同时忽略大小写、反引号和表名前缀匹配，
+	 * 找不到或为null时抛出异常，避免以null作为下一页的起点而提前结束遍历
+	 */
+	static Object getKeyValue(Map<String, Object> row, String keyColumn) {
+		Object value = row.get(keyColumn);
+		if (value == null) {
+			String name = normalizeColumn(keyColumn);
+			for (Map.Entry<String, Object> entry : row.entrySet()) {
+				if (normalizeColumn(entry.getKey()).equals(name)) {
+					if (value != null)
+						throw new IllegalStateException("keyset column is ambiguous: " + keyColumn);
+					value = entry.getValue();
+				}
+			}
+		}
+		if (value == null)
+			throw new IllegalStateException("keyset column is missing or null in result row: " + keyColumn);
+		return value;
+	}
+
+	private static String normalizeColumn(String column) {
+		String name = column.replace("`", "").trim();
+		int index = name.lastIndexOf('.');
+		return (index < 0 ? name : name.substring(index + 1)).toLowerCase();
+	}
+
+	private List<Map<String, Object>> fetch(List<Object> lastKey) {
+		List<Object> params = new ArrayList<Object>();
+		String sql = buildSql(lastKey, params);
+		try {
+			return JdbcUtil.queryListMap(dbName, sql, params.toArray());
+		} catch (Exception e) {
+			throw new IllegalStateException("keyset page query failed: " + sql, e);
+		}
+	}
+
+	/**
+	 * 生成分页查询语句，参数按顺序追加到params
+	 *
+	 * @param lastKey-上页末尾的键值，为空时查询第一页
+	 * @param params-查询参数
+	 * @return
+	 */
+	String buildSql(List<Object> lastKey, List<Object> params) {
+		StringBuilder sql = new StringBuilder("select * from ").append(tableName);
+		params.addAll(conditionParams);
+		List<String> whereList = new ArrayList<String>();
+		if (condition != null && condition.trim().length() > 0)
+			whereList.add("(" + condition + ")");
+		if (lastKey != null) {
+			// (k1,k2) > (?,?)展开为k1 > ? or (k1 = ? and k2 > ?)，便于MySQL使用索引范围扫描
+			StringBuilder keyset = new StringBuilder("(");
+			for (int i = 0; i < keyColumns.size(); i++) {
+				if (i > 0)
+					keyset.append(" or ");
+				keyset.append("(");
+				for (int j = 0; j < i; j++) {
+					keyset.append(keyColumns.get(j)).append(" = ? and ");
+					params.add(lastKey.get(j));
+				}
+				keyset.append(keyColumns.get(i)).append(" > ?)");
+				params.add(lastKey.get(i));
+			}
+			whereList.add(keyset.append(")").toString());
+		}
+		for (int i = 0; i < whereList.size(); i++)
+			sql.append(i == 0 ? " where " : " and ").append(whereList.get(i));
+		sql.append(" order by ");
+		for (int i = 0; i < keyColumns.size(); i++)
+			sql.append(i == 0 ? "" : ",").append(keyColumns.get(i));
+		sql.append(" limit ").append(pageSize);
+		return sql.toString();
+	}
+
+	private static List<Map<String, Object>> await(Future<List<Map<String, Object>>> future) {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ * 数据库访问统计，按SQL指纹记录耗时、行数、错误和慢查询
+ *
+ * @class JdbcMetrics
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+class JdbcMetrics {
+
+	private static final Pattern stringPattern = Pattern.compile("'(?:[^'\\\\]|\\\\.|'')*'|\"(?:[^\"\\\\]|\\\\.)*\"");
+	private static final Pattern numberPattern = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?(?:[eE][-+]?\\d+)?\\b");
+	private static final Pattern tailQuotePattern = Pattern.compile("['\"][^'\"]*$");
+	private static final Pattern listPattern = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)(?:\\s*,\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\))*");
+	private static final Pattern tailTuplePattern = Pattern.compile("\\s*,?\\s*\\([^)]*$");
+	private static final Pattern spacePattern = Pattern.compile("\\s+");
+	private static final int maxFingerprintLength = 512;
+	private static final int maxFingerprints = 1000;
+	private static final int maxSlowQueries = 100;
+	private static final String OTHER = "other";
+
+	private final long slowQueryNanos;
+	private final ConcurrentHashMap<String, SqlStat> statMap = new ConcurrentHashMap<String, SqlStat>();
+	private final LatencyHistogram checkoutHistogram = new LatencyHistogram();
+	private final LinkedList<Map<String, Object>> slowQueryList = new LinkedList<Map<String, Object>>();
+
+	private static class SqlStat {
+		final LatencyHistogram total = new LatencyHistogram();
+		final LatencyHistogram execute = new LatencyHistogram();
+		final LatencyHistogram map = new LatencyHistogram();
+		final LongAdder rowsReturned = new LongAdder();
+		final LongAdder rowsAffected = new LongAdder();
+		final LongAdder errors = new LongAdder();
+	}
+
+	/**
+	 * @param slowQueryMillis-慢查询阈值(毫秒)
+	 */
+	JdbcMetrics(long slowQueryMillis) {
+		this.slowQueryNanos = slowQueryMillis * 1000000;
+	}
+
+	/**
+	 * 记录一次执行，各阶段时间点为System.nanoTime()，未到达的阶段传0
+	 *
+	 * @param sql-语句
+	 * @param start-开始获取连接
+	 * @param acquired-获取到连接
+	 * @param executed-语句执行完成
+	 * @param end-结果读取完成
+	 * @param rows-返回或影响的行数
+	 * @param query-是否为查询
+	 * @param error-异常，成功时为null
+	 */
+	void record(String sql, long start, long acquired, long executed, long end, long rows, boolean query, Exception error) {
+		SqlStat stat = getStat(fingerprint(sql));
+		if (acquired > 0) {
+			checkoutHistogram.record(acquired - start);
+			if (executed > 0)
+				stat.execute.record(executed - acquired);
+			if (executed > 0 && query)
+				stat.map.record(end - executed);
+		}
+		stat.total.record(end - start);
+		if (error != null)
+			stat.errors.increment();
+		else if (query)
+			stat.rowsReturned.add(rows);
+		else
+			stat.rowsAffected.add(rows);
+		if (end - start >= slowQueryNanos) {
+			Map<String, Object> slowQuery = new LinkedHashMap<String, Object>();
+			slowQuery.put("time", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()));
+			slowQuery.put("sql", sql.length() > 2000 ? sql.substring(0, 2000) + "..." : sql);
+			slowQuery.put("millis", (end - start) / 1000000.0);
+			slowQuery.put("checkoutMillis", acquired > 0 ? (acquired - start) / 1000000.0 : null);
+			slowQuery.put("rows", rows);
+			slowQuery.put("error", error == null ? null : error.toString());
+			synchronized (slowQueryList) {
+				slowQueryList.addFirst(slowQuery);
+				if (slowQueryList.size() > maxSlowQueries)
+					slowQueryList.removeLast();
+			}
+		}
+	}
+
+	/**
+	 * 获取统计快照
+	 */
+	Map<String, Object> toMap() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("checkout", checkoutHistogram.toMap());
+		Map<String, Object> sqlMap = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, SqlStat> entry : statMap.entrySet()) {
+			SqlStat stat = entry.getValue();
+			Map<String, Object> itemMap = new LinkedHashMap<String, Object>();
+			itemMap.put("total", stat.total.toMap());
+			itemMap.put("execute", stat.execute.toMap());
+			itemMap.put("map", stat.map.toMap());
+			itemMap.put("rowsReturned", stat.rowsReturned.sum());
+			itemMap.put("rowsAffected", stat.rowsAffected.sum());
+			itemMap.put("errors", stat.errors.sum());
+			sqlMap.put(entry.getKey(), itemMap);
+		}
+		map.put("sql", sqlMap);
+		synchronized (slowQueryList) {
+			map.put("slowQuery", new ArrayList<Map<String, Object>>(slowQueryList));
+		}
+		return map;
+	}
+
+	private SqlStat getStat(String fingerprint) {
+		SqlStat stat = statMap.get(fingerprint);
+		if (stat != null)
+			return stat;
+		if (statMap.size() >= maxFingerprints)
+			fingerprint = OTHER;
+		stat = new SqlStat();
+		SqlStat old = statMap.putIfAbsent(fingerprint, stat);
+		return old == null ? stat : old;
+	}
+
+	/**
+	 * 生成SQL指纹：字面量替换为?，多值列表合并，空白压缩并转小写
+	 */
+	static String fingerprint(String sql) {
+		boolean truncated = sql.length() > maxFingerprintLength * 4;
+		String fingerprint = truncated ? sql.substring(0, maxFingerprintLength * 4) : sql;
+		fingerprint = stringPattern.matcher(fingerprint).replaceAll("?");
+		if (truncated)
+			fingerprint = tailQuotePattern.matcher(fingerprint).replaceAll("?");
+		fingerprint = numberPattern.matcher(fingerprint).replaceAll("?");
+		fingerprint = listPattern.matcher(fingerprint).replaceAll("(?+)");
+		if (truncated)
+			fingerprint = tailTuplePattern.matcher(fingerprint).replaceAll("");
+		fingerprint = spacePattern.matcher(fingerprint).replaceAll(" ").trim().toLowerCase();
+		if (fingerprint.length() > maxFingerprintLength) {
+			fingerprint = fingerprint.substring(0, maxFingerprintLength);
+			truncated = true;
+		}
+		return truncated ? fingerprint + "..." : fingerprint;
+	}
+}
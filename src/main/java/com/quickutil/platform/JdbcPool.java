@@ -0,0 +1,492 @@
+/**
+ * 内置轻量连接池，空闲连接优先从当前线程最近归还的连接中获取，其次无锁扫描共享列表，连接耗尽时通过同步队列直接交接给等待线程
+ *
+ * @class JdbcPool
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+public class JdbcPool implements DataSource {
+
+	private static final int REMOVED = -1;
+	private static final int IDLE = 0;
+	private static final int IN_USE = 1;
+	private static final int maxThreadLocalEntries = 16;
+	private static final long pollNanos = TimeUnit.MILLISECONDS.toNanos(50);
+	// 交接自旋的上限，等待线程未及时poll时连接放回本地列表，等待线程下次扫描共享列表时获取
+	private static final int maxHandoffSpins = 1024;
+	private static ScheduledExecutorService housekeeper;
+
+	private final String jdbcUrl;
+	private final Properties info = new Properties();
+	private final int minconnum;
+	private final int maxconnum;
+	private long checkoutTimeoutNanos = TimeUnit.SECONDS.toNanos(30);
+	private long maxIdleMillis = 600000;
+	private long maxConnectionAgeMillis = 0;
+	private long leakDetectionMillis = 0;
+	private long validationIdleMillis = 500;
+	private int validationTimeoutSeconds = 3;
+	private final CopyOnWriteArrayList<PoolEntry> entryList = new CopyOnWriteArrayList<PoolEntry>();
+	private final SynchronousQueue<PoolEntry> handoffQueue = new SynchronousQueue<PoolEntry>(true);
+	private final AtomicInteger totalCount = new AtomicInteger();
+	private final AtomicInteger waiterCount = new AtomicInteger();
+	private final ThreadLocal<List<PoolEntry>> threadEntryList = new ThreadLocal<List<PoolEntry>>() {
+		@Override
+		protected List<PoolEntry> initialValue() {
+			return new ArrayList<PoolEntry>(maxThreadLocalEntries);
+		}
+	};
+	private final ScheduledFuture<?> housekeepFuture;
+	private volatile boolean closed = false;
+
+	private static class PoolEntry {
+		final Connection connection;
+		final AtomicInteger state;
+		final long createTime = System.currentTimeMillis();
+		volatile long lastAccess = createTime;
+		volatile long borrowTime;
+		volatile Exception borrowTrace;
+		volatile boolean leakReported;
+
+		PoolEntry(Connection connection, int state) {
+			this.connection = connection;
+			this.state = new AtomicInteger(state);
+		}
+	}
+
+	/**
+	 * @param jdbcUrl-jdbc的url
+	 * @param username-用户名
+	 * @param password-密码
+	 * @param initconnum-初始化连接数
+	 * @param minconnum-最小连接数
+	 * @param maxconnum-最大连接数
+	 * @param pool-连接池配置，可为null，支持DriverClass、CheckoutTimeout(毫秒，0为一直等待)、MaxIdleTime(秒)、MaxConnectionAge(秒)、UnreturnedConnectionTimeout(秒，超时未归还时输出借出位置)、ValidationIdleMillis(空闲超过该时间的连接借出前校验)、ValidationTimeout(秒)
+	 */
+	public JdbcPool(String jdbcUrl, String username, String password, int initconnum, int minconnum, int maxconnum, Properties pool) {
+		this.jdbcUrl = jdbcUrl;
+		this.info.setProperty("user", username);
+		this.info.setProperty("password", password);
+		this.minconnum = minconnum;
+		this.maxconnum = Math.max(1, maxconnum);
+		String driverClass = "com.mysql.jdbc.Driver";
+		if (pool != null) {
+			if (pool.getProperty("DriverClass") != null)
+				driverClass = pool.getProperty("DriverClass");
+			if (pool.getProperty("CheckoutTimeout") != null) {
+				long checkoutTimeout = Long.parseLong(pool.getProperty("CheckoutTimeout"));
+				checkoutTimeoutNanos = checkoutTimeout > 0 ? TimeUnit.MILLISECONDS.toNanos(checkoutTimeout) : Long.MAX_VALUE / 2;
+			}
+			if (pool.getProperty("MaxIdleTime") != null)
+				maxIdleMillis = Long.parseLong(pool.getProperty("MaxIdleTime")) * 1000;
+			if (pool.getProperty("MaxConnectionAge") != null)
+				maxConnectionAgeMillis = Long.parseLong(pool.getProperty("MaxConnectionAge")) * 1000;
+			if (pool.getProperty("UnreturnedConnectionTimeout") != null)
+				leakDetectionMillis = Long.parseLong(pool.getProperty("UnreturnedConnectionTimeout")) * 1000;
+			if (pool.getProperty("ValidationIdleMillis") != null)
+				validationIdleMillis = Long.parseLong(pool.getProperty("ValidationIdleMillis"));
+			if (pool.getProperty("ValidationTimeout") != null)
+				validationTimeoutSeconds = Integer.parseInt(pool.getProperty("ValidationTimeout"));
+		}
+		try {
+			Class.forName(driverClass);
+		} catch (ClassNotFoundException e) {
+			LogUtil.error(e, "jdbc驱动加载失败:" + driverClass);
+		}
+		for (int i = 0; i < Math.min(initconnum, this.maxconnum); i++) {
+			if (!addIdleEntry())
+				break;
+		}
+		housekeepFuture = getHousekeeper().scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				housekeep();
+			}
+		}, 5, 5, TimeUnit.SECONDS);
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		long deadline = System.nanoTime() + checkoutTimeoutNanos;
+		while (true) {
+			if (closed)
+				throw new SQLException("连接池已关闭:" + jdbcUrl);
+			PoolEntry entry = borrow(deadline);
+			if (entry == null)
+				throw new SQLTimeoutException("获取连接超时:" + jdbcUrl + "，当前连接数" + totalCount.get() + "，等待线程数" + waiterCount.get());
+			if (isUsable(entry))
+				return open(entry);
+			remove(entry);
+		}
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	/**
+	 * 关闭连接池和全部空闲连接，已借出的连接在归还时关闭
+	 */
+	public void close() {
+		closed = true;
+		housekeepFuture.cancel(false);
+		for (PoolEntry entry : entryList) {
+			if (entry.state.compareAndSet(IDLE, REMOVED))
+				remove(entry);
+		}
+	}
+
+	public String getJdbcUrl() {
+		return jdbcUrl;
+	}
+
+	public int getMaxPoolSize() {
+		return maxconnum;
+	}
+
+	public int getNumConnections() {
+		return entryList.size();
+	}
+
+	public int getNumIdleConnections() {
+		int idle = 0;
+		for (PoolEntry entry : entryList) {
+			if (entry.state.get() == IDLE)
+				idle++;
+		}
+		return idle;
+	}
+
+	public int getNumBusyConnections() {
+		int busy = 0;
+		for (PoolEntry entry : entryList) {
+			if (entry.state.get() == IN_USE)
+				busy++;
+		}
+		return busy;
+	}
+
+	public int getNumThreadsAwaitingCheckout() {
+		return waiterCount.get();
+	}
+
+	/**
+	 * 依次尝试当前线程归还过的连接、共享列表中的空闲连接、新建连接，最后等待其他线程交接，只有等待交接期间计入等待线程数
+	 */
+	private PoolEntry borrow(long deadline) throws SQLException {
+		List<PoolEntry> localList = threadEntryList.get();
+		for (int i = localList.size() - 1; i >= 0; i--) {
+			PoolEntry entry = localList.remove(i);
+			if (entry.state.compareAndSet(IDLE, IN_USE))
+				return entry;
+		}
+		while (true) {
+			for (PoolEntry entry : entryList) {
+				if (entry.state.compareAndSet(IDLE, IN_USE))
+					return entry;
+			}
+			PoolEntry entry = createEntry();
+			if (entry != null)
+				return entry;
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0)
+				return null;
+			waiterCount.incrementAndGet();
+			try {
+				entry = handoffQueue.poll(Math.min(remaining, pollNanos), TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("获取连接被中断:" + jdbcUrl, e);
+			} finally {
+				waiterCount.decrementAndGet();
+			}
+			if (entry != null && entry.state.compareAndSet(IDLE, IN_USE))
+				return entry;
+		}
+	}
+
+	/**
+	 * 归还连接，有线程等待时直接交接，否则放入当前线程的本地列表
+	 */
+	private void release(PoolEntry entry) {
+		entry.borrowTrace = null;
+		if (closed || isExpired(entry, System.currentTimeMillis())) {
+			remove(entry);
+			return;
+		}
+		entry.lastAccess = System.currentTimeMillis();
+		entry.state.set(IDLE);
+		for (int i = 0; i < maxHandoffSpins && waiterCount.get() > 0; i++) {
+			if (entry.state.get() != IDLE || handoffQueue.offer(entry))
+				return;
+			if ((i & 0xff) == 0xff)
+				LockSupport.parkNanos(10000);
+			else
+				Thread.yield();
+		}
+		List<PoolEntry> localList = threadEntryList.get();
+		if (localList.size() >= maxThreadLocalEntries)
+			localList.remove(0);
+		localList.add(entry);
+	}
+
+	/**
+	 * 空闲超过校验间隔的连接借出前使用isValid校验，刚归还的连接直接借出
+	 */
+	private boolean isUsable(PoolEntry entry) {
+		long now = System.currentTimeMillis();
+		if (isExpired(entry, now))
+			return false;
+		if (now - entry.lastAccess > validationIdleMillis) {
+			try {
+				if (!entry.connection.isValid(validationTimeoutSeconds))
+					return false;
+			} catch (SQLException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isExpired(PoolEntry entry, long now) {
+		return maxConnectionAgeMillis > 0 && now - entry.createTime > maxConnectionAgeMillis;
+	}
+
+	private PoolEntry createEntry() throws SQLException {
+		while (true) {
+			int total = totalCount.get();
+			if (total >= maxconnum)
+				return null;
+			if (totalCount.compareAndSet(total, total + 1))
+				break;
+		}
+		try {
+			PoolEntry entry = new PoolEntry(DriverManager.getConnection(jdbcUrl, info), IN_USE);
+			entryList.add(entry);
+			return entry;
+		} catch (SQLException e) {
+			totalCount.decrementAndGet();
+			throw e;
+		}
+	}
+
+	/**
+	 * 新建一个空闲连接，达到最大连接数或创建失败时返回false
+	 */
+	private boolean addIdleEntry() {
+		try {
+			PoolEntry entry = createEntry();
+			if (entry == null)
+				return false;
+			release(entry);
+			return true;
+		} catch (SQLException e) {
+			LogUtil.error(e, "连接池创建连接失败:" + jdbcUrl);
+		}
+		return false;
+	}
+
+	private void remove(PoolEntry entry) {
+		entry.state.set(REMOVED);
+		if (!entryList.remove(entry))
+			return;
+		totalCount.decrementAndGet();
+		try {
+			entry.connection.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private Connection open(PoolEntry entry) {
+		entry.borrowTime = System.currentTimeMillis();
+		entry.leakReported = false;
+		if (leakDetectionMillis > 0)
+			entry.borrowTrace = new Exception("连接借出位置");
+		return (Connection) Proxy.newProxyInstance(JdbcPool.class.getClassLoader(), new Class<?>[] { Connection.class }, new ConnectionHandler(entry));
+	}
+
+	/**
+	 * 定期回收空闲超时和超龄的连接，补足最小连接数，并报告超时未归还的连接
+	 */
+	private void housekeep() {
+		long now = System.currentTimeMillis();
+		int idle = getNumIdleConnections();
+		for (PoolEntry entry : entryList) {
+			int state = entry.state.get();
+			if (state == IDLE && (isExpired(entry, now) || (idle > minconnum && now - entry.lastAccess > maxIdleMillis))) {
+				if (entry.state.compareAndSet(IDLE, REMOVED)) {
+					remove(entry);
+					idle--;
+				}
+			} else if (state == IN_USE && leakDetectionMillis > 0 && !entry.leakReported && now - entry.borrowTime > leakDetectionMillis) {
+				Exception borrowTrace = entry.borrowTrace;
+				if (borrowTrace != null) {
+					entry.leakReported = true;
+					LogUtil.warn(borrowTrace, "连接借出超过" + leakDetectionMillis / 1000 + "秒未归还，可能存在泄漏:" + jdbcUrl);
+				}
+			}
+		}
+		// 创建失败时等下次执行再补足，避免数据库不可用时反复重试占用共享的维护线程
+		while (!closed && totalCount.get() < Math.min(minconnum, maxconnum) && getNumIdleConnections() < minconnum) {
+			if (!addIdleEntry())
+				break;
+		}
+	}
+
+	/**
+	 * 连接代理，close时归还到连接池，并关闭未关闭的Statement、回滚未提交的事务、恢复autocommit和只读状态
+	 */
+	private class ConnectionHandler implements InvocationHandler {
+
+		private final PoolEntry entry;
+		private List<Statement> statementList;
+		private boolean dirty = false;
+		private boolean broken = false;
+		private boolean closed = false;
+
+		ConnectionHandler(PoolEntry entry) {
+			this.entry = entry;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.equals("close")) {
+				if (!closed) {
+					closed = true;
+					recycle();
+				}
+				return null;
+			}
+			if (name.equals("isClosed"))
+				return closed;
+			if (name.equals("equals"))
+				return proxy == args[0];
+			if (name.equals("hashCode"))
+				return System.identityHashCode(proxy);
+			if (name.equals("toString"))
+				return "JdbcPool" + (closed ? "(closed)" : "") + ":" + entry.connection;
+			if (closed) {
+				if (name.equals("isValid"))
+					return false;
+				throw new SQLException("连接已归还连接池");
+			}
+			if (name.equals("setAutoCommit") || name.equals("setReadOnly"))
+				dirty = true;
+			try {
+				Object result = method.invoke(entry.connection, args);
+				if (result instanceof Statement) {
+					if (statementList == null)
+						statementList = new ArrayList<Statement>();
+					statementList.add((Statement) result);
+				}
+				return result;
+			} catch (InvocationTargetException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof SQLException) {
+					String sqlState = ((SQLException) cause).getSQLState();
+					if (sqlState != null && sqlState.startsWith("08"))
+						broken = true;
+				}
+				throw cause;
+			}
+		}
+
+		private void recycle() {
+			try {
+				if (statementList != null) {
+					for (Statement statement : statementList) {
+						if (!statement.isClosed())
+							statement.close();
+					}
+				}
+				if (dirty) {
+					if (!entry.connection.getAutoCommit()) {
+						entry.connection.rollback();
+						entry.connection.setAutoCommit(true);
+					}
+					if (entry.connection.isReadOnly())
+						entry.connection.setReadOnly(false);
+				}
+			} catch (SQLException e) {
+				broken = true;
+			}
+			if (broken)
+				remove(entry);
+			else
+				release(entry);
+		}
+	}
+
+	private static synchronized ScheduledExecutorService getHousekeeper() {
+		if (housekeeper == null) {
+			housekeeper = Executors.newSingleThreadScheduledExecutor(JdbcUtil.getThreadFactory("jdbc-pool-housekeeper-"));
+		}
+		return housekeeper;
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return null;
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		DriverManager.setLoginTimeout(seconds);
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return DriverManager.getLoginTimeout();
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this))
+			return iface.cast(this);
+		throw new SQLException("不支持的类型:" + iface.getName());
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this);
+	}
+}
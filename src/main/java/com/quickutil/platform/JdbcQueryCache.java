@@ -0,0 +1,369 @@
+/**
+ * 数据库查询结果缓存，按权重LRU淘汰并支持TTL，写入语句涉及的表会使相关缓存失效
+ *
+ * @class JdbcQueryCache
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+class JdbcQueryCache {
+
+	private static final Pattern readTablePattern = Pattern.compile("(?i)\\b(?:from|join)\\s+([`\\w.]+(?:\\s*,\\s*[`\\w.]+)*)");
+	private static final Pattern writeTablePattern = Pattern.compile("(?i)\\b(?:insert\\s+(?:ignore\\s+)?into|replace\\s+into|update|delete\\s+from|truncate\\s+(?:table\\s+)?|drop\\s+table\\s+(?:if\\s+exists\\s+)?|alter\\s+table|rename\\s+table)\\s+([`\\w.]+)");
+	private static final Pattern selectPattern = Pattern.compile("(?i)^\\s*(?:select|show|desc|describe|explain)\\b");
+	private static final String redisPrefix = "jdbccache:";
+	private static final String ALL = "*";
+
+	private final String dbName;
+	private final long maxWeight;
+	private final long ttlMillis;
+	private final String jedisName;
+	private long weight = 0;
+	private long generation = 0;
+	private final LinkedHashMap<String, Entry> entryMap = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final Map<String, Set<String>> tableKeyMap = new HashMap<String, Set<String>>();
+
+	private static class Entry {
+		List<Map<String, Object>> value;
+		Set<String> tables;
+		String versions;
+		long expireTime;
+		long weight;
+	}
+
+	/**
+	 * 从redis读取的结果只允许反序列化查询结果可能包含的类型，避免被写入redis的数据触发任意类的反序列化
+	 */
+	private static final Set<String> allowedClassSet = new HashSet<String>(Arrays.asList("java.util.ArrayList", "java.util.HashMap", "java.lang.String", "java.lang.Number", "java.lang.Integer", "java.lang.Long", "java.lang.Short", "java.lang.Byte", "java.lang.Double", "java.lang.Float", "java.lang.Boolean", "java.lang.Character", "java.math.BigDecimal", "java.math.BigInteger", "java.util.Date", "java.sql.Timestamp", "java.sql.Date", "java.sql.Time", "java.time.Ser", "[B"));
+
+	private static class ResultInputStream extends ObjectInputStream {
+
+		ResultInputStream(InputStream in) throws IOException {
+			super(in);
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			if (!allowedClassSet.contains(desc.getName()))
+				throw new InvalidClassException(desc.getName(), "not allowed in query cache");
+			return super.resolveClass(desc);
+		}
+
+		@Override
+		protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+			throw new InvalidClassException("proxy class not allowed in query cache");
+		}
+	}
+
+	/**
+	 * @param dbName-数据库名称
+	 * @param maxWeight-缓存容量上限(估算字节数)
+	 * @param ttlMillis-缓存有效期(毫秒)
+	 * @param jedisName-redis二级缓存名称，为空时只使用进程内缓存
+	 */
+	JdbcQueryCache(String dbName, long maxWeight, long ttlMillis, String jedisName) {
+		this.dbName = dbName;
+		this.maxWeight = maxWeight;
+		this.ttlMillis = ttlMillis;
+		this.jedisName = jedisName;
+	}
+
+	/**
+	 * 生成缓存key，压缩引号外的空白并拼接参数
+	 */
+	String getKey(String sql, Object[] params) {
+		StringBuilder sb = new StringBuilder(sql.length() + 16);
+		char quote = 0;
+		boolean space = false;
+		for (int i = 0; i < sql.length(); i++) {
+			char c = sql.charAt(i);
+			if (quote == 0 && Character.isWhitespace(c)) {
+				space = true;
+				continue;
+			}
+			if (space && sb.length() > 0)
+				sb.append(' ');
+			space = false;
+			if (quote == 0 && (c == '\'' || c == '"' || c == '`'))
+				quote = c;
+			else if (quote == c && sql.charAt(i - 1) != '\\')
+				quote = 0;
+			sb.append(c);
+		}
+		if (params != null && params.length > 0)
+			sb.append('\n').append(Arrays.deepToString(params));
+		return sb.toString();
+	}
+
+	long getGeneration() {
+		synchronized (this) {
+			return generation;
+		}
+	}
+
+	/**
+	 * 读取查询涉及的表在redis中的版本号快照，需在查询前读取并传给get和put，未使用redis时返回空字符串，读取失败时返回null
+	 */
+	String getVersions(String sql) {
+		if (jedisName == null)
+			return "";
+		List<String> tableList = new ArrayList<String>(getReadTables(sql));
+		tableList.add(ALL);
+		List<String> versionList = JedisUtil.getHash(jedisName, redisPrefix + "version:" + dbName, tableList);
+		if (versionList == null)
+			return null;
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < tableList.size(); i++)
+			sb.append('\n').append(tableList.get(i)).append('=').append(versionList.get(i));
+		return sb.toString();
+	}
+
+	/**
+	 * 查询缓存，本地缓存的版本号与当前不一致时视为已被其他进程失效，本地未命中时查询redis二级缓存
+	 */
+	List<Map<String, Object>> get(String key, String sql, String versions) {
+		if (versions == null)
+			return null;
+		synchronized (this) {
+			Entry entry = entryMap.get(key);
+			if (entry != null) {
+				if (entry.expireTime > System.currentTimeMillis() && versions.equals(entry.versions))
+					return copy(entry.value);
+				remove(key);
+			}
+		}
+		if (jedisName == null)
+			return null;
+		Set<String> tables = getReadTables(sql);
+		List<Map<String, Object>> value = getRedis(key, versions);
+		if (value != null)
+			putLocal(key, tables, versions, value);
+		return copy(value);
+	}
+
+	/**
+	 * 写入缓存，查询期间发生过失效时放弃写入，redis二级缓存写入查询前读取的版本号对应的key，
+	 * 查询期间其他进程的失效已增加版本号，旧结果不会被读取
+	 */
+	void put(String key, String sql, long startGeneration, String versions, List<Map<String, Object>> value) {
+		if (versions == null)
+			return;
+		Set<String> tables = getReadTables(sql);
+		synchronized (this) {
+			if (generation != startGeneration)
+				return;
+		}
+		putLocal(key, tables, versions, copy(value));
+		if (jedisName != null)
+			setRedis(key, versions, value);
+	}
+
+	/**
+	 * 根据写入语句使缓存失效，无法识别表名的非查询语句将清空该数据库全部缓存
+	 */
+	void invalidateSql(String sql) {
+		if (selectPattern.matcher(sql).find())
+			return;
+		Set<String> tables = new HashSet<String>();
+		Matcher matcher = writeTablePattern.matcher(sql);
+		while (matcher.find())
+			tables.add(normalizeTable(matcher.group(1)));
+		if (tables.isEmpty())
+			tables.add(ALL);
+		invalidate(tables);
+	}
+
+	/**
+	 * 使指定表的缓存失效
+	 */
+	void invalidate(Set<String> tables) {
+		synchronized (this) {
+			generation++;
+			if (tables.contains(ALL)) {
+				entryMap.clear();
+				tableKeyMap.clear();
+				weight = 0;
+			} else {
+				for (String table : tables) {
+					Set<String> keySet = tableKeyMap.remove(table);
+					if (keySet == null)
+						continue;
+					for (String key : keySet)
+						remove(key);
+				}
+			}
+		}
+		if (jedisName != null)
+			bumpRedisVersion(tables);
+	}
+
+	private void putLocal(String key, Set<String> tables, String versions, List<Map<String, Object>> value) {
+		Entry entry = new Entry();
+		entry.value = value;
+		entry.tables = tables;
+		entry.versions = versions;
+		entry.expireTime = System.currentTimeMillis() + ttlMillis;
+		entry.weight = weigh(key, value);
+		if (entry.weight > maxWeight)
+			return;
+		synchronized (this) {
+			remove(key);
+			entryMap.put(key, entry);
+			weight += entry.weight;
+			for (String table : tables) {
+				Set<String> keySet = tableKeyMap.get(table);
+				if (keySet == null) {
+					keySet = new HashSet<String>();
+					tableKeyMap.put(table, keySet);
+				}
+				keySet.add(key);
+			}
+			Iterator<Map.Entry<String, Entry>> iterator = entryMap.entrySet().iterator();
+			while (weight > maxWeight && iterator.hasNext()) {
+				Map.Entry<String, Entry> eldest = iterator.next();
+				iterator.remove();
+				detach(eldest.getKey(), eldest.getValue());
+			}
+		}
+	}
+
+	private void remove(String key) {
+		Entry entry = entryMap.remove(key);
+		if (entry != null)
+			detach(key, entry);
+	}
+
+	private void detach(String key, Entry entry) {
+		weight -= entry.weight;
+		for (String table : entry.tables) {
+			Set<String> keySet = tableKeyMap.get(table);
+			if (keySet == null)
+				continue;
+			keySet.remove(key);
+			if (keySet.isEmpty())
+				tableKeyMap.remove(table);
+		}
+	}
+
+	/**
+	 * redis二级缓存的key包含全局版本号和所涉及表的版本号，表失效时增加表的版本号，全部失效时增加全局版本号，旧缓存由过期时间回收
+	 */
+	private String getRedisKey(String key, String versions) {
+		return redisPrefix + dbName + ":" + CryptoUtil.md5Encode((key + versions).getBytes());
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<Map<String, Object>> getRedis(String key, String versions) {
+		try {
+			String content = JedisUtil.getString(jedisName, getRedisKey(key, versions));
+			if (content == null)
+				return null;
+			ObjectInputStream ois = new ResultInputStream(new ByteArrayInputStream(CryptoUtil.base64ToByte(content)));
+			try {
+				return (List<Map<String, Object>>) ois.readObject();
+			} finally {
+				ois.close();
+			}
+		} catch (Exception e) {
+			LogUtil.error(e, "查询缓存读取redis失败");
+			return null;
+		}
+	}
+
+	private void setRedis(String key, String versions, List<Map<String, Object>> value) {
+		try {
+			String redisKey = getRedisKey(key, versions);
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(bos);
+			oos.writeObject(value);
+			oos.close();
+			JedisUtil.setString(jedisName, redisKey, CryptoUtil.byteToBase64(bos.toByteArray()));
+			JedisUtil.setExpire(jedisName, redisKey, (int) Math.max(1, ttlMillis / 1000));
+		} catch (Exception e) {
+			LogUtil.error(e, "查询缓存写入redis失败");
+		}
+	}
+
+	private void bumpRedisVersion(Set<String> tables) {
+		try {
+			List<String> tableList = tables.contains(ALL) ? Collections.singletonList(ALL) : new ArrayList<String>(tables);
+			List<String> keyList = new ArrayList<String>();
+			List<Long> countList = new ArrayList<Long>();
+			for (int i = 0; i < tableList.size(); i++) {
+				keyList.add(redisPrefix + "version:" + dbName);
+				countList.add(1L);
+			}
+			JedisUtil.setHincrby(jedisName, keyList, tableList, countList);
+		} catch (Exception e) {
+			LogUtil.error(e, "查询缓存redis失效失败");
+		}
+	}
+
+	/**
+	 * 提取查询语句涉及的表名
+	 */
+	static Set<String> getReadTables(String sql) {
+		Set<String> tables = new LinkedHashSet<String>();
+		Matcher matcher = readTablePattern.matcher(sql);
+		while (matcher.find()) {
+			for (String table : matcher.group(1).split(","))
+				tables.add(normalizeTable(table));
+		}
+		return tables;
+	}
+
+	private static String normalizeTable(String table) {
+		table = table.trim().replace("`", "").toLowerCase();
+		int index = table.lastIndexOf('.');
+		return index < 0 ? table : table.substring(index + 1);
+	}
+
+	private static long weigh(String key, List<Map<String, Object>> value) {
+		long weight = 64 + key.length() * 2;
+		for (Map<String, Object> row : value) {
+			weight += 48;
+			for (Map.Entry<String, Object> column : row.entrySet()) {
+				weight += 32 + column.getKey().length() * 2;
+				Object object = column.getValue();
+				if (object instanceof String)
+					weight += 40 + ((String) object).length() * 2;
+				else if (object instanceof byte[])
+					weight += 16 + ((byte[]) object).length;
+				else
+					weight += 24;
+			}
+		}
+		return weight;
+	}
+
+	private static List<Map<String, Object>> copy(List<Map<String, Object>> value) {
+		if (value == null)
+			return null;
+		List<Map<String, Object>> list = new ArrayList<Map<String, Object>>(value.size());
+		for (Map<String, Object> row : value)
+			list.add(new HashMap<String, Object>(row));
+		return list;
+	}
+}
@@ -0,0 +1,325 @@
+/**
+ * 结果集到对象的映射器，按类和字段标签组合生成一次并缓存，使用MethodHandle写入属性，按列序号读取
+ *
+ * @class JdbcRowMapper
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+class JdbcRowMapper<T> {
+
+	private static final int maxMappersPerClass = 256;
+	// 按Class对象缓存，不同类加载器加载的同名类各自生成映射器，类卸载时随之回收
+	private static final ClassValue<Map<String, JdbcRowMapper<?>>> mapperValue = new ClassValue<Map<String, JdbcRowMapper<?>>>() {
+		@Override
+		protected Map<String, JdbcRowMapper<?>> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<String, JdbcRowMapper<?>>();
+		}
+	};
+	private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+	private final MethodHandle constructor;
+	private final int[] columnIndexes;
+	private final ColumnReader[] readers;
+	private final MethodHandle[] setters;
+
+	/**
+	 * 按列序号读取值，基本类型使用对应的getXxx避免装箱转换
+	 */
+	private interface ColumnReader {
+		Object read(ResultSet rs, int index) throws SQLException;
+	}
+
+	private JdbcRowMapper(Class<T> clazz, ResultSetMetaData rsmd) throws Exception {
+		Constructor<T> defaultConstructor = clazz.getDeclaredConstructor();
+		defaultConstructor.setAccessible(true);
+		this.constructor = lookup.unreflectConstructor(defaultConstructor).asType(MethodType.methodType(Object.class));
+		Map<String, MethodHandle> setterMap = new HashMap<String, MethodHandle>();
+		Map<String, Class<?>> typeMap = new HashMap<String, Class<?>>();
+		for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				if (Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers()))
+					continue;
+				String name = normalize(field.getName());
+				if (setterMap.containsKey(name))
+					continue;
+				field.setAccessible(true);
+				setterMap.put(name, lookup.unreflectSetter(field));
+				typeMap.put(name, field.getType());
+			}
+		}
+		for (Method method : clazz.getMethods()) {
+			if (!method.getName().startsWith("set") || method.getParameterCount() != 1 || Modifier.isStatic(method.getModifiers()))
+				continue;
+			String name = normalize(method.getName().substring(3));
+			MethodHandle setter;
+			try {
+				// 非public类或内部类的public方法也需要setAccessible，无法访问时保留同名字段的写入方式
+				method.setAccessible(true);
+				setter = lookup.unreflect(method);
+			} catch (Exception e) {
+				continue;
+			}
+			setterMap.put(name, setter);
+			typeMap.put(name, method.getParameterTypes()[0]);
+		}
+		List<Integer> indexList = new ArrayList<Integer>();
+		List<ColumnReader> readerList = new ArrayList<ColumnReader>();
+		List<MethodHandle> setterList = new ArrayList<MethodHandle>();
+		for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+			String name = normalize(rsmd.getColumnLabel(i));
+			MethodHandle setter = setterMap.get(name);
+			if (setter == null)
+				continue;
+			indexList.add(i);
+			readerList.add(getReader(typeMap.get(name)));
+			setterList.add(setter.asType(MethodType.methodType(void.class, Object.class, Object.class)));
+		}
+		this.columnIndexes = new int[indexList.size()];
+		for (int i = 0; i < columnIndexes.length; i++)
+			columnIndexes[i] = indexList.get(i);
+		this.readers = readerList.toArray(new ColumnReader[readerList.size()]);
+		this.setters = setterList.toArray(new MethodHandle[setterList.size()]);
+	}
+
+	/**
+	 * 获取类和结果集字段组合对应的映射器，每个类缓存的字段组合数量有上限，超出时不再缓存
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> JdbcRowMapper<T> getMapper(Class<T> clazz, ResultSetMetaData rsmd) throws Exception {
+		StringBuilder key = new StringBuilder();
+		for (int i = 1; i <= rsmd.getColumnCount(); i++)
+			key.append(',').append(rsmd.getColumnLabel(i));
+		String mapperKey = key.toString();
+		Map<String, JdbcRowMapper<?>> mapperMap = mapperValue.get(clazz);
+		JdbcRowMapper<T> mapper = (JdbcRowMapper<T>) mapperMap.get(mapperKey);
+		if (mapper == null) {
+			mapper = new JdbcRowMapper<T>(clazz, rsmd);
+			if (mapperMap.size() < maxMappersPerClass)
+				mapperMap.put(mapperKey, mapper);
+		}
+		return mapper;
+	}
+
+	/**
+	 * 映射当前行
+	 */
+	@SuppressWarnings("unchecked")
+	T map(ResultSet rs) throws Exception {
+		try {
+			Object object = constructor.invokeExact();
+			for (int i = 0; i < columnIndexes.length; i++) {
+				Object value = readers[i].read(rs, columnIndexes[i]);
+				if (value != null)
+					setters[i].invokeExact(object, value);
+			}
+			return (T) object;
+		} catch (Exception e) {
+			throw e;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * 忽略大小写和下划线，user_name、userName、USERNAME视为同一字段
+	 */
+	private static String normalize(String name) {
+		return name.replace("_", "").toLowerCase();
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static ColumnReader getReader(Class<?> type) {
+		if (type == int.class || type == Integer.class)
+			return new ColumnReader() {
+				@Override
+				public Object read(ResultSet rs, int index) throws SQLException {
+					int value = rs.getInt(index);
+					return rs.wasNull() ? null : value;
+				}
+			};
+		if (type == long.class || type == Long.class)
+			return new ColumnReader() {
+				@Override
+				public Object read(ResultSet rs, int index) throws SQLException {
+					long value = rs.getLong(index);
+					return rs.wasNull() ? null : value;
+				}
+			};
+		if (type == double.class || type == Double.class)
+			return new ColumnReader() {
+				@Override
+				public Object read(ResultSet rs, int index) throws SQLException {
+					double value = rs.getDouble(index);
+					return rs.wasNull() ? null : value;
+				}
+			};
+		if (type == float.class || type == Float.class)
+			return new ColumnReader() {
+				@Override
+				public Object read(ResultSet rs, int index) throws SQLException {
+					float value = rs.getFloat(index);
+					return rs.wasNull() ? null : value;
+				}
+			};
+		if (type == boolean.class || type == Boolean.class)
+			return new ColumnReader() {
+				@Override
+				public Object read(ResultSet rs, int index) throws SQLException {
+					boolean value = rs.getBoolean(index);
+					return rs.wasNull() ? null : value;
+				}
+			};
+		if (type == short.class || type == Short.class)
+			return new ColumnReader() {
+				@Override
+				public Object read(ResultSet rs, int index) throws SQLException {
+					short value = rs.getShort(index);
+					return rs.wasNull() ? null : value;
+				}
+			};
+		if (type == byte.class || type == Byte.class)
+			return new ColumnReader() {
+				@Override
+				public Object read(ResultSet rs, int index) throws SQLException {
+					byte value = rs.getByte(index);
+					return rs.wasNull() ? null : value;
+				}
+			};
+		if (type == String.class)
+			return new ColumnReader() {
+				@Override
+				public Object read(ResultSet rs, int index) throws SQLException {
+					return rs.getString(index);
+				}
+			};
+		if (type == BigDecimal.class)
+			return new ColumnReader() {
+				@Override
+				public Object read(ResultSet rs, int index) throws SQLException {
+					return rs.getBigDecimal(index);
+				}
+			};
+		if (type == java.util.Date.class)
+			return new ColumnReader() {
+				@Override
+				public Object read(ResultSet rs, int index) throws SQLException {
+					java.sql.Timestamp value = rs.getTimestamp(index);
+					return value == null ? null : new java.util.Date(value.getTime());
+				}
+			};
+		if (type == byte[].class)
+			return new ColumnReader() {
+				@Override
+				public Object read(ResultSet rs, int index) throws SQLException {
+					return rs.getBytes(index);
+				}
+			};
+		if (type == java.sql.Timestamp.class)
+			return new ColumnReader() {
+				@Override
+				public Object read(ResultSet rs, int index) throws SQLException {
+					return rs.getTimestamp(index);
+				}
+			};
+		if (type == java.sql.Date.class)
+			return new ColumnReader() {
+				@Override
+				public Object read(ResultSet rs, int index) throws SQLException {
+					return rs.getDate(index);
+				}
+			};
+		if (type == java.sql.Time.class)
+			return new ColumnReader() {
+				@Override
+				public Object read(ResultSet rs, int index) throws SQLException {
+					return rs.getTime(index);
+				}
+			};
+		if (type == LocalDateTime.class)
+			return new ColumnReader() {
+				@Override
+				public Object read(ResultSet rs, int index) throws SQLException {
+					java.sql.Timestamp value = rs.getTimestamp(index);
+					return value == null ? null : value.toLocalDateTime();
+				}
+			};
+		if (type == LocalDate.class)
+			return new ColumnReader() {
+				@Override
+				public Object read(ResultSet rs, int index) throws SQLException {
+					java.sql.Date value = rs.getDate(index);
+					return value == null ? null : value.toLocalDate();
+				}
+			};
+		if (type == LocalTime.class)
+			return new ColumnReader() {
+				@Override
+				public Object read(ResultSet rs, int index) throws SQLException {
+					java.sql.Time value = rs.getTime(index);
+					return value == null ? null : value.toLocalTime();
+				}
+			};
+		if (type == Instant.class)
+			return new ColumnReader() {
+				@Override
+				public Object read(ResultSet rs, int index) throws SQLException {
+					java.sql.Timestamp value = rs.getTimestamp(index);
+					return value == null ? null : value.toInstant();
+				}
+			};
+		if (type == BigInteger.class)
+			return new ColumnReader() {
+				@Override
+				public Object read(ResultSet rs, int index) throws SQLException {
+					BigDecimal value = rs.getBigDecimal(index);
+					return value == null ? null : value.toBigInteger();
+				}
+			};
+		if (type.isEnum()) {
+			final Class<? extends Enum> enumType = (Class<? extends Enum>) type;
+			return new ColumnReader() {
+				@Override
+				public Object read(ResultSet rs, int index) throws SQLException {
+					String value = rs.getString(index);
+					return value == null ? null : Enum.valueOf(enumType, value);
+				}
+			};
+		}
+		// 其他类型要求驱动返回的对象可直接赋值，不能赋值时抛出异常，避免静默丢失数据
+		final Class<?> objectType = type;
+		return new ColumnReader() {
+			@Override
+			public Object read(ResultSet rs, int index) throws SQLException {
+				Object value = rs.getObject(index);
+				if (value == null || objectType.isInstance(value))
+					return value;
+				throw new SQLException("column " + rs.getMetaData().getColumnLabel(index) + " of type " + value.getClass().getName() + " cannot be mapped to " + objectType.getName());
+			}
+		};
+	}
+}
@@ -0,0 +1,256 @@
+/**
+ * 数据库表结构缓存，按需加载information_schema中的表和字段信息
+ *
+ * @class JdbcSchemaCache
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+class JdbcSchemaCache {
+
+	private static final Pattern ddlPattern = Pattern.compile("(?i)\\b(?:create\\s+(?:temporary\\s+)?table\\s+(?:if\\s+not\\s+exists\\s+)?|alter\\s+table\\s+|drop\\s+(?:temporary\\s+)?table\\s+(?:if\\s+exists\\s+)?|rename\\s+table\\s+)([`\\w.]+(?:\\s*,\\s*[`\\w.]+)*)");
+	private static final Pattern renamePattern = Pattern.compile("(?i)\\bto\\s+([`\\w.]+)");
+	private static ScheduledExecutorService scheduler;
+
+	private final String dbName;
+	private final Map<String, Boolean> tableExistMap = new ConcurrentHashMap<String, Boolean>();
+	private final Map<String, List<String>> tableListMap = new ConcurrentHashMap<String, List<String>>();
+	private final Map<String, List<String>> columnMap = new ConcurrentHashMap<String, List<String>>();
+	private final Map<String, Set<String>> columnSetMap = new ConcurrentHashMap<String, Set<String>>();
+	private final Map<String, String> createTableMap = new ConcurrentHashMap<String, String>();
+	private long generation = 0;
+	private ScheduledFuture<?> refreshFuture;
+
+	/**
+	 * @param dbName-数据库名称
+	 * @param refreshSeconds-后台刷新周期(秒)，0为不刷新
+	 */
+	JdbcSchemaCache(String dbName, int refreshSeconds) {
+		this.dbName = dbName;
+		if (refreshSeconds > 0) {
+			refreshFuture = getScheduler().scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					refresh();
+				}
+			}, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	boolean isTableExist(String tableName) {
+		String cacheKey = normalizeTable(tableName);
+		Boolean exist = tableExistMap.get(cacheKey);
+		if (exist != null)
+			return exist;
+		try {
+			long startGeneration = getGeneration();
+			exist = JdbcUtil.queryTableExist(dbName, tableName);
+			synchronized (this) {
+				if (generation == startGeneration)
+					tableExistMap.put(cacheKey, exist);
+			}
+			return exist;
+		} catch (SQLException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	List<String> getTableList(String schema) {
+		List<String> tableList = tableListMap.get(schema);
+		if (tableList != null)
+			return new ArrayList<String>(tableList);
+		try {
+			long startGeneration = getGeneration();
+			tableList = JdbcUtil.queryTableList(dbName, schema);
+			synchronized (this) {
+				if (generation == startGeneration)
+					tableListMap.put(schema, tableList);
+			}
+			return new ArrayList<String>(tableList);
+		} catch (SQLException e) {
+			e.printStackTrace();
+			return new ArrayList<String>();
+		}
+	}
+
+	List<String> getTableColumns(String tableName) {
+		String cacheKey = normalizeTable(tableName);
+		List<String> columnList = columnMap.get(cacheKey);
+		if (columnList != null)
+			return new ArrayList<String>(columnList);
+		try {
+			long startGeneration = getGeneration();
+			columnList = JdbcUtil.queryTableColumns(dbName, tableName);
+			putColumns(cacheKey, columnList, startGeneration);
+			return new ArrayList<String>(columnList);
+		} catch (SQLException e) {
+			e.printStackTrace();
+			return new ArrayList<String>();
+		}
+	}
+
+	String getCreateTable(String tableName) {
+		String cacheKey = normalizeTable(tableName);
+		String createTable = createTableMap.get(cacheKey);
+		if (createTable != null)
+			return createTable;
+		try {
+			long startGeneration = getGeneration();
+			createTable = JdbcUtil.queryCreateTable(dbName, tableName);
+			synchronized (this) {
+				if (createTable != null && generation == startGeneration)
+					createTableMap.put(cacheKey, createTable);
+			}
+			return createTable;
+		} catch (SQLException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * 返回表中不存在的字段，表字段无法获取时不做校验
+	 */
+	List<String> getUnknownColumns(String tableName, Set<String> keySet) {
+		String table = tableName.replace("`", "");
+		getTableColumns(table);
+		Set<String> columnSet = columnSetMap.get(normalizeTable(table));
+		if (columnSet == null || columnSet.isEmpty())
+			return Collections.emptyList();
+		List<String> unknownList = new ArrayList<String>();
+		for (String key : keySet) {
+			if (!columnSet.contains(key.replace("`", "").toLowerCase()))
+				unknownList.add(key);
+		}
+		return unknownList;
+	}
+
+	/**
+	 * 根据DDL语句使缓存失效，缓存key保留库名前缀，按去掉库名后的表名忽略大小写匹配，带或不带库名的缓存都会失效，
+	 * 同时增加版本号，使失效前开始的加载不再写入
+	 */
+	void invalidateSql(String sql) {
+		Matcher matcher = ddlPattern.matcher(sql);
+		if (!matcher.find())
+			return;
+		Set<String> tables = new HashSet<String>();
+		do {
+			for (String table : matcher.group(1).split(","))
+				tables.add(getTablePart(normalizeTable(table)).toLowerCase());
+		} while (matcher.find());
+		Matcher renameMatcher = renamePattern.matcher(sql);
+		while (renameMatcher.find())
+			tables.add(getTablePart(normalizeTable(renameMatcher.group(1))).toLowerCase());
+		synchronized (this) {
+			generation++;
+			removeTables(columnMap.keySet(), tables);
+			removeTables(columnSetMap.keySet(), tables);
+			removeTables(createTableMap.keySet(), tables);
+			tableExistMap.clear();
+			tableListMap.clear();
+		}
+	}
+
+	private static void removeTables(Set<String> keySet, Set<String> tables) {
+		Iterator<String> iterator = keySet.iterator();
+		while (iterator.hasNext()) {
+			if (tables.contains(getTablePart(iterator.next()).toLowerCase()))
+				iterator.remove();
+		}
+	}
+
+	/**
+	 * 缓存key去掉反引号和空白，保留库名前缀和大小写，后台刷新时直接用于查询
+	 */
+	private static String normalizeTable(String table) {
+		return table.trim().replace("`", "");
+	}
+
+	private static String getTablePart(String table) {
+		int index = table.lastIndexOf('.');
+		return index < 0 ? table : table.substring(index + 1);
+	}
+
+	private synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * 后台刷新已缓存的内容，查询失败时保留旧值，刷新期间发生失效的内容不写入
+	 */
+	void refresh() {
+		try {
+			long startGeneration = getGeneration();
+			for (String tableName : tableExistMap.keySet()) {
+				boolean exist = JdbcUtil.queryTableExist(dbName, tableName);
+				synchronized (this) {
+					if (generation == startGeneration)
+						tableExistMap.put(tableName, exist);
+				}
+			}
+			for (String schema : tableListMap.keySet()) {
+				List<String> tableList = JdbcUtil.queryTableList(dbName, schema);
+				synchronized (this) {
+					if (generation == startGeneration)
+						tableListMap.put(schema, tableList);
+				}
+			}
+			for (String tableName : columnMap.keySet())
+				putColumns(tableName, JdbcUtil.queryTableColumns(dbName, tableName), startGeneration);
+			for (String tableName : createTableMap.keySet()) {
+				String createTable = JdbcUtil.queryCreateTable(dbName, tableName);
+				synchronized (this) {
+					if (generation != startGeneration)
+						continue;
+					if (createTable == null)
+						createTableMap.remove(tableName);
+					else
+						createTableMap.put(tableName, createTable);
+				}
+			}
+		} catch (Exception e) {
+			LogUtil.error(e, "表结构缓存刷新失败:" + dbName);
+		}
+	}
+
+	void close() {
+		if (refreshFuture != null)
+			refreshFuture.cancel(false);
+	}
+
+	private void putColumns(String cacheKey, List<String> columnList, long startGeneration) {
+		Set<String> columnSet = new HashSet<String>();
+		for (String column : columnList)
+			columnSet.add(column.toLowerCase());
+		synchronized (this) {
+			if (generation != startGeneration)
+				return;
+			columnMap.put(cacheKey, columnList);
+			columnSetMap.put(cacheKey, columnSet);
+		}
+	}
+
+	private static synchronized ScheduledExecutorService getScheduler() {
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(JdbcUtil.getThreadFactory("jdbc-schema-refresh-"));
+		}
+		return scheduler;
+	}
+}
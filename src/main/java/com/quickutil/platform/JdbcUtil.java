@@ -7,26 +7,101 @@
 
 package com.quickutil.platform;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.sql.DataSource;
 
 import com.mchange.v2.c3p0.ComboPooledDataSource;
 
 public class JdbcUtil {
 
-	private static Map<String, ComboPooledDataSource> dataSourceMap = new HashMap<String, ComboPooledDataSource>();
+	private static Map<String, DataSource> dataSourceMap = new HashMap<String, DataSource>();
+	private static Map<String, List<DataSource>> replicaMap = new ConcurrentHashMap<String, List<DataSource>>();
+	private static Map<String, ReplicaBalance> replicaBalanceMap = new ConcurrentHashMap<String, ReplicaBalance>();
+	private static final ThreadLocal<AsyncStatements> asyncStatementsLocal = new ThreadLocal<AsyncStatements>();
+	private static final ThreadLocal<Boolean> primaryReadLocal = new ThreadLocal<Boolean>();
+	private static Map<String, AtomicInteger> replicaIndexMap = new ConcurrentHashMap<String, AtomicInteger>();
+	private static Map<DataSource, Long> replicaDownMap = new ConcurrentHashMap<DataSource, Long>();
+	private static Map<String, Long> stickyWindowMap = new ConcurrentHashMap<String, Long>();
+	private static ThreadLocal<Map<String, Long>> lastWriteMap = new ThreadLocal<Map<String, Long>>() {
+		@Override
+		protected Map<String, Long> initialValue() {
+			return new HashMap<String, Long>();
+		}
+	};
+	private static long replicaRetryMillis = 30000;
+	private static long maxPacketBytes = 1024 * 1024;
+	private static final int maxPlaceholders = 65535;
+	private static Map<String, JdbcQueryCache> queryCacheMap = new ConcurrentHashMap<String, JdbcQueryCache>();
+	private static Map<String, JdbcSchemaCache> schemaCacheMap = new ConcurrentHashMap<String, JdbcSchemaCache>();
+	private static Set<String> insertColumnCheckSet = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private static Map<String, ConsistentHash<String>> shardHashMap = new ConcurrentHashMap<String, ConsistentHash<String>>();
+	private static Map<String, TreeMap<Long, String>> shardRangeMap = new ConcurrentHashMap<String, TreeMap<Long, String>>();
+	private static int shardThreads = Runtime.getRuntime().availableProcessors() * 4;
+	private static ExecutorService shardExecutor;
+	private static Map<String, ExecutorService> asyncExecutorMap = new ConcurrentHashMap<String, ExecutorService>();
+	private static Map<String, Long> asyncTimeoutMap = new ConcurrentHashMap<String, Long>();
+	private static ScheduledExecutorService asyncScheduler;
+	private static Map<String, JdbcMetrics> metricsMap = new ConcurrentHashMap<String, JdbcMetrics>();
+
+	/**
+	 * 从库负载均衡策略，roundRobin为轮询，leastBusy为选择繁忙连接数最少的从库
+	 */
+	public enum ReplicaBalance {
+		roundRobin, leastBusy;
+	}
+
+	/**
+	 * 连接池类型，c3p0为c3p0连接池，quick为内置轻量连接池
+	 */
+	public enum PoolType {
+		c3p0, quick;
+	}
 
 	/**
 	 * 增加datasource，使用默认c3p0配置
@@ -38,7 +113,7 @@ public class JdbcUtil {
 	}
 
 	/**
-	 * 增加datasource，指定c3p0配置
+	 * 增加datasource，指定c3p0配置，{key}.pool=quick时使用内置连接池，c3p0配置中同名的参数同样生效
 	 * 
 	 * @param jdbc-jdbc配置
 	 * @param c3p0-c3p0配置
@@ -61,7 +136,16 @@ public class JdbcUtil {
 				int initconnum = Integer.parseInt(jdbc.getProperty(key + ".initconnum"));
 				int minconnum = Integer.parseInt(jdbc.getProperty(key + ".minconnum"));
 				int maxconnum = Integer.parseInt(jdbc.getProperty(key + ".maxconnum"));
-				dataSourceMap.put(key, getDataSource(jdbcUrl, user, password, initconnum, minconnum, maxconnum, c3p0));
+				PoolType poolType = jdbc.getProperty(key + ".pool") == null ? PoolType.c3p0 : PoolType.valueOf(jdbc.getProperty(key + ".pool"));
+				dataSourceMap.put(key, getDataSource(jdbcUrl, user, password, initconnum, minconnum, maxconnum, c3p0, poolType));
+				// 从库，多个url以逗号分隔，沿用主库的账号、连接数和连接池配置
+				String replicaUrl = jdbc.getProperty(key + ".replica.url");
+				if (replicaUrl == null)
+					continue;
+				for (String url : replicaUrl.split(",")) {
+					if (url.trim().length() > 0)
+						addReplicaDataSource(key, getDataSource(url.trim(), user, password, initconnum, minconnum, maxconnum, c3p0, poolType));
+				}
 			} catch (Exception e) {
 				LogUtil.error(e, "jdbc配置参数错误");
 			}
@@ -100,15 +184,155 @@ public class JdbcUtil {
 	}
 
 	/**
-	 * 获取已生成的datasource
+	 * 增加datasource，指定连接池类型和配置
+	 * 
+	 * @param dbName-数据库名称
+	 * @param url-jdbc的url
+	 * @param username-用户名
+	 * @param password-密码
+	 * @param initconnum-初始化连接数
+	 * @param minconnum-最小连接数
+	 * @param maxconnum-最大连接数
+	 * @param pool-连接池配置
+	 * @param poolType-连接池类型
+	 */
+	public static void addDataSource(String dbName, String url, String username, String password, int initconnum, int minconnum, int maxconnum, Properties pool, PoolType poolType) {
+		dataSourceMap.put(dbName, getDataSource(url, username, password, initconnum, minconnum, maxconnum, pool, poolType));
+	}
+
+	/**
+	 * 增加已创建的datasource，可接入任意连接池实现
+	 * 
+	 * @param dbName-数据库名称
+	 * @param datasource-datasource
+	 */
+	public static void addDataSource(String dbName, DataSource datasource) {
+		dataSourceMap.put(dbName, datasource);
+	}
+
+	/**
+	 * 为已有datasource增加从库，使用默认c3p0配置，查询语句将被路由到从库
+	 * 
+	 * @param dbName-数据库名称
+	 * @param url-从库jdbc的url
+	 * @param username-用户名
+	 * @param password-密码
+	 * @param initconnum-初始化连接数
+	 * @param minconnum-最小连接数
+	 * @param maxconnum-最大连接数
+	 */
+	public static void addReplicaDataSource(String dbName, String url, String username, String password, int initconnum, int minconnum, int maxconnum) {
+		addReplicaDataSource(dbName, url, username, password, initconnum, minconnum, maxconnum, null);
+	}
+
+	/**
+	 * 为已有datasource增加从库，使用指定c3p0配置，查询语句将被路由到从库
+	 * 
+	 * @param dbName-数据库名称
+	 * @param url-从库jdbc的url
+	 * @param username-用户名
+	 * @param password-密码
+	 * @param initconnum-初始化连接数
+	 * @param minconnum-最小连接数
+	 * @param maxconnum-最大连接数
+	 * @param c3p0-c3p0配置
+	 */
+	public static void addReplicaDataSource(String dbName, String url, String username, String password, int initconnum, int minconnum, int maxconnum, Properties c3p0) {
+		addReplicaDataSource(dbName, getDataSource(url, username, password, initconnum, minconnum, maxconnum, c3p0));
+	}
+
+	/**
+	 * 为已有datasource增加已创建的从库datasource，查询语句将被路由到从库
+	 * 
+	 * @param dbName-数据库名称
+	 * @param datasource-从库datasource
+	 */
+	public static void addReplicaDataSource(String dbName, DataSource datasource) {
+		if (datasource == null)
+			return;
+		// 计数器需在从库列表发布前创建，避免并发查询读到列表时计数器还不存在
+		replicaIndexMap.putIfAbsent(dbName, new AtomicInteger());
+		synchronized (replicaMap) {
+			List<DataSource> replicaList = new ArrayList<DataSource>();
+			if (replicaMap.get(dbName) != null)
+				replicaList.addAll(replicaMap.get(dbName));
+			replicaList.add(datasource);
+			replicaMap.put(dbName, replicaList);
+		}
+	}
+
+	/**
+	 * 获取已生成的从库datasource
+	 * 
+	 * @param dbName-数据库名称
+	 * @return
+	 */
+	public static List<DataSource> getReplicaDataSource(String dbName) {
+		return replicaMap.get(dbName);
+	}
+
+	/**
+	 * 设置从库负载均衡策略，默认为轮询
+	 * 
+	 * @param dbName-数据库名称
+	 * @param balance-负载均衡策略
+	 */
+	public static void setReplicaBalance(String dbName, ReplicaBalance balance) {
+		replicaBalanceMap.put(dbName, balance);
+	}
+
+	/**
+	 * 设置从库连接失败后的隔离时间，隔离期间查询不会路由到该从库
+	 * 
+	 * @param millis-隔离时间(毫秒)
+	 */
+	public static void setReplicaRetryMillis(long millis) {
+		replicaRetryMillis = millis;
+	}
+
+	/**
+	 * 设置读己之写的时间窗口，当前线程写入主库后的窗口期内，查询仍路由到主库，0为关闭
+	 * 
+	 * @param dbName-数据库名称
+	 * @param windowMillis-时间窗口(毫秒)
+	 */
+	public static void setReadYourWrites(String dbName, long windowMillis) {
+		if (windowMillis <= 0)
+			stickyWindowMap.remove(dbName);
+		else
+			stickyWindowMap.put(dbName, windowMillis);
+	}
+
+	/**
+	 * 获取已生成的c3p0 datasource，使用其他连接池时返回null
 	 * 
 	 * @param dbName-数据库名称
 	 * @return
 	 */
 	public static ComboPooledDataSource getDataSource(String dbName) {
+		DataSource datasource = dataSourceMap.get(dbName);
+		return datasource instanceof ComboPooledDataSource ? (ComboPooledDataSource) datasource : null;
+	}
+
+	/**
+	 * 获取已生成的datasource
+	 * 
+	 * @param dbName-数据库名称
+	 * @return
+	 */
+	public static DataSource getPool(String dbName) {
 		return dataSourceMap.get(dbName);
 	}
 
+	private static DataSource getDataSource(String jdbcUrl, String username, String password, int initconnum, int minconnum, int maxconnum, Properties pool, PoolType poolType) {
+		if (!PoolType.quick.equals(poolType))
+			return getDataSource(jdbcUrl, username, password, initconnum, minconnum, maxconnum, pool);
+		if (jdbcUrl == null || username == null || password == null) {
+			return null;
+		}
+		return new JdbcPool(jdbcUrl, username, password, initconnum, minconnum, maxconnum, pool);
+	}
+
 	private static ComboPooledDataSource getDataSource(String jdbcUrl, String username, String password, int initconnum, int minconnum, int maxconnum, Properties c3p0) {
 		if (jdbcUrl == null || username == null || password == null) {
 			return null;
@@ -207,6 +431,212 @@ public class JdbcUtil {
 		return datasource;
 	}
 
+	/**
+	 * 获取写连接（主库），并记录当前线程的写入时间
+	 */
+	private static Connection getWriteConnection(String dbName) throws SQLException {
+		if (stickyWindowMap.containsKey(dbName))
+			lastWriteMap.get().put(dbName, System.currentTimeMillis());
+		return trackAsync(dataSourceMap.get(dbName).getConnection());
+	}
+
+	/**
+	 * 获取读连接，优先选择健康的从库，从库全部不可用时回退到主库
+	 */
+	private static Connection getReadConnection(String dbName) throws SQLException {
+		return trackAsync(openReadConnection(dbName));
+	}
+
+	private static Connection openReadConnection(String dbName) throws SQLException {
+		List<DataSource> replicaList = replicaMap.get(dbName);
+		if (replicaList == null || replicaList.isEmpty() || primaryReadLocal.get() != null || isSticky(dbName))
+			return dataSourceMap.get(dbName).getConnection();
+		int size = replicaList.size();
+		int start = ReplicaBalance.leastBusy.equals(replicaBalanceMap.get(dbName)) ? leastBusyIndex(replicaList) : (replicaIndexMap.get(dbName).getAndIncrement() & Integer.MAX_VALUE) % size;
+		for (int i = 0; i < size; i++) {
+			DataSource replica = replicaList.get((start + i) % size);
+			if (!isReplicaHealthy(replica))
+				continue;
+			try {
+				return replica.getConnection();
+			} catch (SQLException e) {
+				replicaDownMap.put(replica, System.currentTimeMillis() + replicaRetryMillis);
+				LogUtil.error(e, "从库连接失败:" + getJdbcUrl(replica));
+			}
+		}
+		return dataSourceMap.get(dbName).getConnection();
+	}
+
+	/**
+	 * 当前线程之后的查询路由到主库，返回之前是否已在主库读取，需在finally中调用endPrimaryRead
+	 */
+	private static boolean beginPrimaryRead() {
+		boolean primary = primaryReadLocal.get() != null;
+		primaryReadLocal.set(Boolean.TRUE);
+		return primary;
+	}
+
+	private static void endPrimaryRead(boolean primary) {
+		if (!primary)
+			primaryReadLocal.remove();
+	}
+
+	private static boolean isSticky(String dbName) {
+		Long window = stickyWindowMap.get(dbName);
+		if (window == null)
+			return false;
+		Long lastWrite = lastWriteMap.get().get(dbName);
+		return lastWrite != null && System.currentTimeMillis() - lastWrite < window;
+	}
+
+	private static boolean isReplicaHealthy(DataSource replica) {
+		Long downUntil = replicaDownMap.get(replica);
+		if (downUntil == null)
+			return true;
+		if (System.currentTimeMillis() < downUntil)
+			return false;
+		replicaDownMap.remove(replica);
+		return true;
+	}
+
+	private static int leastBusyIndex(List<DataSource> replicaList) {
+		int index = 0;
+		int minBusy = Integer.MAX_VALUE;
+		for (int i = 0; i < replicaList.size(); i++) {
+			DataSource replica = replicaList.get(i);
+			if (!isReplicaHealthy(replica))
+				continue;
+			int busy = getNumBusy(replica);
+			if (busy < minBusy) {
+				minBusy = busy;
+				index = i;
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * 繁忙连接数与等待线程数之和，无法获取时为0
+	 */
+	private static int getNumBusy(DataSource datasource) {
+		try {
+			if (datasource instanceof JdbcPool)
+				return ((JdbcPool) datasource).getNumBusyConnections() + ((JdbcPool) datasource).getNumThreadsAwaitingCheckout();
+			if (datasource instanceof ComboPooledDataSource)
+				return ((ComboPooledDataSource) datasource).getNumBusyConnectionsDefaultUser() + ((ComboPooledDataSource) datasource).getNumThreadsAwaitingCheckoutDefaultUser();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		return 0;
+	}
+
+	/**
+	 * 最大连接数，无法获取时为0
+	 */
+	private static int getMaxPoolSize(DataSource datasource) {
+		if (datasource instanceof JdbcPool)
+			return ((JdbcPool) datasource).getMaxPoolSize();
+		if (datasource instanceof ComboPooledDataSource)
+			return ((ComboPooledDataSource) datasource).getMaxPoolSize();
+		return 0;
+	}
+
+	private static String getJdbcUrl(DataSource datasource) {
+		if (datasource instanceof JdbcPool)
+			return ((JdbcPool) datasource).getJdbcUrl();
+		if (datasource instanceof ComboPooledDataSource)
+			return ((ComboPooledDataSource) datasource).getJdbcUrl();
+		return datasource.toString();
+	}
+
+	/**
+	 * 开启访问统计，记录连接等待、执行和结果读取耗时，行数、错误数和慢查询
+	 * 
+	 * @param dbName-数据库名称
+	 * @param slowQueryMillis-慢查询阈值(毫秒)
+	 */
+	public static void enableMetrics(String dbName, long slowQueryMillis) {
+		metricsMap.put(dbName, new JdbcMetrics(slowQueryMillis));
+	}
+
+	/**
+	 * 关闭访问统计
+	 * 
+	 * @param dbName-数据库名称
+	 */
+	public static void disableMetrics(String dbName) {
+		metricsMap.remove(dbName);
+	}
+
+	/**
+	 * 获取访问统计和连接池状态，耗时单位为毫秒
+	 * 
+	 * @param dbName-数据库名称
+	 * @return
+	 */
+	public static Map<String, Object> getMetrics(String dbName) {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("pool", getPoolStatus(dataSourceMap.get(dbName)));
+		List<DataSource> replicaList = replicaMap.get(dbName);
+		if (replicaList != null) {
+			Map<String, Object> replicaStatus = new LinkedHashMap<String, Object>();
+			for (DataSource replica : replicaList) {
+				Map<String, Object> status = getPoolStatus(replica);
+				status.put("healthy", isReplicaHealthy(replica));
+				replicaStatus.put(getJdbcUrl(replica), status);
+			}
+			map.put("replica", replicaStatus);
+		}
+		JdbcMetrics metrics = metricsMap.get(dbName);
+		if (metrics != null)
+			map.putAll(metrics.toMap());
+		return map;
+	}
+
+	/**
+	 * 获取全部数据库的访问统计和连接池状态
+	 * 
+	 * @return
+	 */
+	public static Map<String, Object> getMetrics() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		for (String dbName : new ArrayList<String>(dataSourceMap.keySet()))
+			map.put(dbName, getMetrics(dbName));
+		return map;
+	}
+
+	private static Map<String, Object> getPoolStatus(DataSource datasource) {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		if (datasource instanceof JdbcPool) {
+			JdbcPool pool = (JdbcPool) datasource;
+			map.put("max", pool.getMaxPoolSize());
+			map.put("total", pool.getNumConnections());
+			map.put("busy", pool.getNumBusyConnections());
+			map.put("idle", pool.getNumIdleConnections());
+			map.put("awaitingCheckout", pool.getNumThreadsAwaitingCheckout());
+			return map;
+		}
+		if (!(datasource instanceof ComboPooledDataSource))
+			return map;
+		ComboPooledDataSource c3p0 = (ComboPooledDataSource) datasource;
+		try {
+			map.put("max", c3p0.getMaxPoolSize());
+			map.put("total", c3p0.getNumConnectionsDefaultUser());
+			map.put("busy", c3p0.getNumBusyConnectionsDefaultUser());
+			map.put("idle", c3p0.getNumIdleConnectionsDefaultUser());
+			map.put("awaitingCheckout", c3p0.getNumThreadsAwaitingCheckoutDefaultUser());
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		return map;
+	}
+
+	private static void recordMetrics(String dbName, String sql, long start, long acquired, long executed, long rows, boolean query, Exception error) {
+		JdbcMetrics metrics = metricsMap.get(dbName);
+		if (metrics != null)
+			metrics.record(sql, start, acquired, executed, System.nanoTime(), rows, query, error);
+	}
+
 	/**
 	 * 用于输入格式化，避免sql注入
 	 * 
@@ -247,6 +677,9 @@ public class JdbcUtil {
 	 * @return
 	 */
 	public static boolean isTableExist(String dbName, String tableName) {
+		JdbcSchemaCache cache = schemaCacheMap.get(dbName);
+		if (cache != null)
+			return cache.isTableExist(tableName);
 		List<Object> list = getListString(dbName, String.format(isTableExistSql, tableName));
 		if (list.size() > 0)
 			return true;
@@ -254,6 +687,18 @@ public class JdbcUtil {
 			return false;
 	}
 
+	/**
+	 * 供表结构缓存加载，从主库查询，避免DDL后从库延迟的旧结构被缓存
+	 */
+	static boolean queryTableExist(String dbName, String tableName) throws SQLException {
+		boolean primary = beginPrimaryRead();
+		try {
+			return queryListString(dbName, String.format(isTableExistSql, tableName)).size() > 0;
+		} finally {
+			endPrimaryRead(primary);
+		}
+	}
+
 	private static String dropTableSql = "drop table `%s`";
 
 	/**
@@ -277,6 +722,9 @@ public class JdbcUtil {
 	 * @return
 	 */
 	public static List<String> getTableList(String dbName, String schema) {
+		JdbcSchemaCache cache = schemaCacheMap.get(dbName);
+		if (cache != null)
+			return cache.getTableList(schema);
 		List<Object> list = JdbcUtil.getListString(dbName, String.format(getTableListSql, schema));
 		List<String> tableList = new ArrayList<String>();
 		for (Object o : list)
@@ -284,6 +732,18 @@ public class JdbcUtil {
 		return tableList;
 	}
 
+	static List<String> queryTableList(String dbName, String schema) throws SQLException {
+		boolean primary = beginPrimaryRead();
+		try {
+			List<String> tableList = new ArrayList<String>();
+			for (Object o : queryListString(dbName, String.format(getTableListSql, schema)))
+				tableList.add((String) o);
+			return tableList;
+		} finally {
+			endPrimaryRead(primary);
+		}
+	}
+
 	private static String getCreateTableSql = "show create table %s";
 
 	/**
@@ -294,12 +754,27 @@ public class JdbcUtil {
 	 * @return
 	 */
 	public static String getCreateTable(String dbName, String tableName) {
+		JdbcSchemaCache cache = schemaCacheMap.get(dbName);
+		if (cache != null)
+			return cache.getCreateTable(tableName);
 		List<Map<String, Object>> list = JdbcUtil.getListMap(dbName, String.format(getCreateTableSql, tableName));
 		if (list.size() > 0)
 			return (String) list.get(0).get("Create Table");
 		return null;
 	}
 
+	static String queryCreateTable(String dbName, String tableName) throws SQLException {
+		boolean primary = beginPrimaryRead();
+		try {
+			List<Map<String, Object>> list = queryListMap(dbName, String.format(getCreateTableSql, tableName));
+			if (list.size() > 0)
+				return (String) list.get(0).get("Create Table");
+			return null;
+		} finally {
+			endPrimaryRead(primary);
+		}
+	}
+
 	private static String getTableColumnsSql = "select COLUMN_NAME from information_schema.columns where table_name='%s'";
 
 	/**
@@ -310,6 +785,9 @@ public class JdbcUtil {
 	 * @return
 	 */
 	public static List<String> getTableColumns(String dbName, String tableName) {
+		JdbcSchemaCache cache = schemaCacheMap.get(dbName);
+		if (cache != null)
+			return cache.getTableColumns(tableName);
 		List<Object> list = JdbcUtil.getListString(dbName, String.format(getTableColumnsSql, tableName));
 		List<String> columnList = new ArrayList<String>();
 		for (Object o : list)
@@ -317,6 +795,83 @@ public class JdbcUtil {
 		return columnList;
 	}
 
+	static List<String> queryTableColumns(String dbName, String tableName) throws SQLException {
+		boolean primary = beginPrimaryRead();
+		try {
+			List<String> columnList = new ArrayList<String>();
+			for (Object o : queryListString(dbName, String.format(getTableColumnsSql, tableName)))
+				columnList.add((String) o);
+			return columnList;
+		} finally {
+			endPrimaryRead(primary);
+		}
+	}
+
+	/**
+	 * 开启表结构缓存，isTableExist、getTableList、getCreateTable、getTableColumns首次查询后缓存结果，通过execute执行的DDL语句会使相关缓存失效
+	 * 
+	 * @param dbName-数据库名称
+	 */
+	public static void enableSchemaCache(String dbName) {
+		enableSchemaCache(dbName, 0);
+	}
+
+	/**
+	 * 开启表结构缓存，并定时在后台刷新已缓存的内容
+	 * 
+	 * @param dbName-数据库名称
+	 * @param refreshSeconds-后台刷新周期(秒)，0为不刷新
+	 */
+	public static void enableSchemaCache(String dbName, int refreshSeconds) {
+		JdbcSchemaCache cache = new JdbcSchemaCache(dbName, refreshSeconds);
+		JdbcSchemaCache old = schemaCacheMap.put(dbName, cache);
+		if (old != null)
+			old.close();
+	}
+
+	/**
+	 * 关闭表结构缓存
+	 * 
+	 * @param dbName-数据库名称
+	 */
+	public static void disableSchemaCache(String dbName) {
+		JdbcSchemaCache cache = schemaCacheMap.remove(dbName);
+		if (cache != null)
+			cache.close();
+	}
+
+	/**
+	 * 开启或关闭insertListMap的字段校验，开启后写入表中不存在的字段将直接返回失败，需先开启表结构缓存
+	 * 
+	 * @param dbName-数据库名称
+	 * @param check-是否校验
+	 */
+	public static void setInsertColumnCheck(String dbName, boolean check) {
+		if (check)
+			insertColumnCheckSet.add(dbName);
+		else
+			insertColumnCheckSet.remove(dbName);
+	}
+
+	private static boolean checkInsertColumn(String dbName, String tableName, Set<String> keySet) {
+		JdbcSchemaCache cache = schemaCacheMap.get(dbName);
+		if (cache == null || !insertColumnCheckSet.contains(dbName))
+			return true;
+		List<String> unknownList = cache.getUnknownColumns(tableName, keySet);
+		if (unknownList.isEmpty())
+			return true;
+		LogUtil.error(new SQLException("unknown column " + unknownList + " in " + tableName), "insertListMap字段校验失败");
+		return false;
+	}
+
+	private static void invalidateSchemaCache(String dbName, List<String> sqlList) {
+		JdbcSchemaCache cache = schemaCacheMap.get(dbName);
+		if (cache == null)
+			return;
+		for (String sql : sqlList)
+			cache.invalidateSql(sql);
+	}
+
 	/**
 	 * 获取单列数据
 	 * 
@@ -325,35 +880,12 @@ public class JdbcUtil {
 	 * @return
 	 */
 	public static List<Object> getListString(String dbName, String sql) {
-		List<Object> list = new ArrayList<Object>();
-		Connection connection = null;
-		PreparedStatement ps = null;
-		ResultSet rs = null;
 		try {
-			connection = dataSourceMap.get(dbName).getConnection();
-			ps = connection.prepareStatement(sql);
-			rs = ps.executeQuery();
-			ResultSetMetaData rsmd = rs.getMetaData();
-			String columnName = rsmd.getColumnLabel(1);
-			while (rs.next()) {
-				list.add(rs.getObject(columnName));
-			}
-			connection.close();
+			return queryListString(dbName, sql);
 		} catch (Exception e) {
 			e.printStackTrace();
-		} finally {
-			try {
-				if (rs != null)
-					rs.close();
-				if (ps != null)
-					ps.close();
-				if (connection != null)
-					connection.close();
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
+			return new ArrayList<Object>();
 		}
-		return list;
 	}
 
 	/**
@@ -364,14 +896,118 @@ public class JdbcUtil {
 	 * @return
 	 */
 	public static List<Map<String, Object>> getListMap(String dbName, String sql) {
-		Connection connection = null;
-		PreparedStatement ps = null;
-		ResultSet rs = null;
+		return getListMap(dbName, sql, new Object[0]);
+	}
+
+	/**
+	 * 获取多列数据，使用预编译参数
+	 * 
+	 * @param dbName-数据库名称
+	 * @param sql-语句，参数使用?占位
+	 * @param params-参数
+	 * @return
+	 */
+	public static List<Map<String, Object>> getListMap(String dbName, String sql, Object... params) {
+		try {
+			return queryListMap(dbName, sql, params);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return new ArrayList<Map<String, Object>>();
+		}
+	}
+
+	/**
+	 * 获取多列数据并映射为对象，字段按名称匹配属性(忽略大小写和下划线)，对象需有无参构造方法
+	 * 
+	 * @param dbName-数据库名称
+	 * @param sql-语句，参数使用?占位
+	 * @param params-参数
+	 * @param clazz-对象类型
+	 * @return
+	 */
+	public static <T> List<T> query(String dbName, String sql, Object[] params, Class<T> clazz) {
+		List<T> list = new ArrayList<T>();
+		Connection connection = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		long start = System.nanoTime(), acquired = 0, executed = 0;
+		Exception error = null;
+		try {
+			connection = getReadConnection(dbName);
+			acquired = System.nanoTime();
+			ps = connection.prepareStatement(sql);
+			if (params != null) {
+				for (int i = 0; i < params.length; i++)
+					ps.setObject(i + 1, params[i]);
+			}
+			rs = ps.executeQuery();
+			executed = System.nanoTime();
+			JdbcRowMapper<T> mapper = JdbcRowMapper.getMapper(clazz, rs.getMetaData());
+			while (rs.next())
+				list.add(mapper.map(rs));
+		} catch (Exception e) {
+			error = e;
+			e.printStackTrace();
+			list.clear();
+		} finally {
+			close(rs, ps, connection);
+			recordMetrics(dbName, sql, start, acquired, executed, list.size(), true, error);
+		}
+		return list;
+	}
+
+	/**
+	 * 获取单列数据，异常时抛出
+	 */
+	static List<Object> queryListString(String dbName, String sql) throws SQLException {
+		List<Object> list = new ArrayList<Object>();
+		Connection connection = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		long start = System.nanoTime(), acquired = 0, executed = 0;
+		Exception error = null;
+		try {
+			connection = getReadConnection(dbName);
+			acquired = System.nanoTime();
+			ps = connection.prepareStatement(sql);
+			rs = ps.executeQuery();
+			executed = System.nanoTime();
+			ResultSetMetaData rsmd = rs.getMetaData();
+			String columnName = rsmd.getColumnLabel(1);
+			while (rs.next()) {
+				list.add(rs.getObject(columnName));
+			}
+		} catch (SQLException e) {
+			error = e;
+			throw e;
+		} catch (RuntimeException e) {
+			error = e;
+			throw e;
+		} finally {
+			close(rs, ps, connection);
+			recordMetrics(dbName, sql, start, acquired, executed, list.size(), true, error);
+		}
+		return list;
+	}
+
+	/**
+	 * 获取多列数据，异常时抛出
+	 */
+	static List<Map<String, Object>> queryListMap(String dbName, String sql, Object... params) throws SQLException {
+		Connection connection = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
 		List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+		long start = System.nanoTime(), acquired = 0, executed = 0;
+		Exception error = null;
 		try {
-			connection = dataSourceMap.get(dbName).getConnection();
+			connection = getReadConnection(dbName);
+			acquired = System.nanoTime();
 			ps = connection.prepareStatement(sql);
+			for (int i = 0; i < params.length; i++)
+				ps.setObject(i + 1, params[i]);
 			rs = ps.executeQuery();
+			executed = System.nanoTime();
 			ResultSetMetaData rsmd = rs.getMetaData();
 			// 获取字段
 			int columnCount = rsmd.getColumnCount();
@@ -386,23 +1022,117 @@ public class JdbcUtil {
 					map.put(name, rs.getObject(name));
 				list.add(map);
 			}
+		} catch (SQLException e) {
+			error = e;
+			throw e;
+		} catch (RuntimeException e) {
+			error = e;
+			throw e;
+		} finally {
+			close(rs, ps, connection);
+			recordMetrics(dbName, sql, start, acquired, executed, list.size(), true, error);
+		}
+		return list;
+	}
+
+	private static void close(ResultSet rs, Statement ps, Connection connection) {
+		try {
+			if (rs != null)
+				rs.close();
+			if (ps != null)
+				ps.close();
+			if (connection != null)
+				connection.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * 获取多列数据，优先读取查询缓存，需先调用enableQueryCache开启
+	 * 
+	 * @param dbName-数据库名称
+	 * @param sql-语句，参数使用?占位
+	 * @param params-参数
+	 * @return
+	 */
+	public static List<Map<String, Object>> getListMapCache(String dbName, String sql, Object... params) {
+		JdbcQueryCache cache = queryCacheMap.get(dbName);
+		if (cache == null)
+			return getListMap(dbName, sql, params);
+		String key = cache.getKey(sql, params);
+		long generation = cache.getGeneration();
+		String versions = cache.getVersions(sql);
+		List<Map<String, Object>> list = cache.get(key, sql, versions);
+		if (list != null)
+			return list;
+		// 未命中时从主库读取，避免把从库延迟的旧数据缓存整个有效期，查询失败时不写入缓存
+		boolean primary = beginPrimaryRead();
+		try {
+			list = queryListMap(dbName, sql, params);
 		} catch (Exception e) {
 			e.printStackTrace();
+			return new ArrayList<Map<String, Object>>();
 		} finally {
-			try {
-				if (rs != null)
-					rs.close();
-				if (ps != null)
-					ps.close();
-				if (connection != null)
-					connection.close();
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
+			endPrimaryRead(primary);
 		}
+		cache.put(key, sql, generation, versions, list);
 		return list;
 	}
 
+	/**
+	 * 开启查询缓存，仅使用进程内缓存
+	 * 
+	 * @param dbName-数据库名称
+	 * @param maxWeight-缓存容量上限(估算字节数)
+	 * @param ttlMillis-缓存有效期(毫秒)
+	 */
+	public static void enableQueryCache(String dbName, long maxWeight, long ttlMillis) {
+		enableQueryCache(dbName, maxWeight, ttlMillis, null);
+	}
+
+	/**
+	 * 开启查询缓存，使用redis作为二级缓存，表失效通过redis中的版本号同步到其他进程，
+	 * 进程内缓存命中时也会读取redis中的版本号校验，版本号读取失败时不使用缓存
+	 * 
+	 * @param dbName-数据库名称
+	 * @param maxWeight-进程内缓存容量上限(估算字节数)
+	 * @param ttlMillis-缓存有效期(毫秒)
+	 * @param jedisName-JedisUtil中的redis名称
+	 */
+	public static void enableQueryCache(String dbName, long maxWeight, long ttlMillis, String jedisName) {
+		queryCacheMap.put(dbName, new JdbcQueryCache(dbName, maxWeight, ttlMillis, jedisName));
+	}
+
+	/**
+	 * 关闭查询缓存
+	 * 
+	 * @param dbName-数据库名称
+	 */
+	public static void disableQueryCache(String dbName) {
+		queryCacheMap.remove(dbName);
+	}
+
+	/**
+	 * 手动使指定表的查询缓存失效
+	 * 
+	 * @param dbName-数据库名称
+	 * @param tableName-表名
+	 */
+	public static void invalidateQueryCache(String dbName, String tableName) {
+		JdbcQueryCache cache = queryCacheMap.get(dbName);
+		if (cache != null)
+			cache.invalidate(Collections.singleton(tableName.toLowerCase()));
+	}
+
+	private static void invalidateQueryCache(String dbName, List<String> sqlList) {
+		JdbcQueryCache cache = queryCacheMap.get(dbName);
+		if (cache == null)
+			return;
+		for (String sql : sqlList)
+			cache.invalidateSql(sql);
+	}
+
 	/**
 	 * 执行单条语句
 	 * 
@@ -413,15 +1143,24 @@ public class JdbcUtil {
 	public static boolean execute(String dbName, String sql) {
 		Connection connection = null;
 		PreparedStatement ps = null;
+		long start = System.nanoTime(), acquired = 0, executed = 0, rows = 0;
+		Exception error = null;
 		try {
-			connection = dataSourceMap.get(dbName).getConnection();
+			connection = getWriteConnection(dbName);
+			acquired = System.nanoTime();
 			ps = connection.prepareStatement(sql);
 			ps.execute();
+			executed = System.nanoTime();
+			rows = Math.max(0, ps.getUpdateCount());
 			return true;
 		} catch (Exception e) {
+			error = e;
 			e.printStackTrace();
 			return false;
 		} finally {
+			recordMetrics(dbName, sql, start, acquired, executed, rows, false, error);
+			invalidateQueryCache(dbName, Collections.singletonList(sql));
+			invalidateSchemaCache(dbName, Collections.singletonList(sql));
 			try {
 				if (ps != null)
 					ps.close();
@@ -443,10 +1182,15 @@ public class JdbcUtil {
 	public static Integer executeWithId(String dbName, String sql) {
 		Connection connection = null;
 		PreparedStatement ps = null;
+		long start = System.nanoTime(), acquired = 0, executed = 0, rows = 0;
+		Exception error = null;
 		try {
-			connection = dataSourceMap.get(dbName).getConnection();
+			connection = getWriteConnection(dbName);
+			acquired = System.nanoTime();
 			ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
 			ps.execute();
+			executed = System.nanoTime();
+			rows = Math.max(0, ps.getUpdateCount());
 			ResultSet rs = ps.getGeneratedKeys();
 			int i = 0;
 			if (rs.next()) {
@@ -454,9 +1198,13 @@ public class JdbcUtil {
 			}
 			return i;
 		} catch (Exception e) {
+			error = e;
 			e.printStackTrace();
 			return null;
 		} finally {
+			recordMetrics(dbName, sql, start, acquired, executed, rows, false, error);
+			invalidateQueryCache(dbName, Collections.singletonList(sql));
+			invalidateSchemaCache(dbName, Collections.singletonList(sql));
 			try {
 				if (ps != null)
 					ps.close();
@@ -478,17 +1226,25 @@ public class JdbcUtil {
 	public static boolean executeBatch(String dbName, List<String> sqlList) {
 		Connection connection = null;
 		PreparedStatement ps = null;
+		long start = System.nanoTime(), acquired = 0, executed = 0, rows = 0;
+		Exception error = null;
 		try {
-			connection = dataSourceMap.get(dbName).getConnection();
+			connection = getWriteConnection(dbName);
+			acquired = System.nanoTime();
 			connection.setAutoCommit(false);
 			Statement statement = connection.createStatement();
 			for (String sql : sqlList) {
 				statement.addBatch(sql);
 			}
-			statement.executeBatch();
+			for (int count : statement.executeBatch()) {
+				if (count > 0)
+					rows += count;
+			}
 			connection.commit();
+			executed = System.nanoTime();
 			return true;
 		} catch (Exception e) {
+			error = e;
 			if (connection != null)
 				try {
 					connection.rollback();
@@ -498,6 +1254,10 @@ public class JdbcUtil {
 			e.printStackTrace();
 			return false;
 		} finally {
+			if (!sqlList.isEmpty())
+				recordMetrics(dbName, sqlList.get(0), start, acquired, executed, rows, false, error);
+			invalidateQueryCache(dbName, sqlList);
+			invalidateSchemaCache(dbName, sqlList);
 			try {
 				if (ps != null)
 					ps.close();
@@ -521,6 +1281,8 @@ public class JdbcUtil {
 	public static boolean insertListMap(String dbName, String tableName, List<Map<String, Object>> content, boolean isReplace) {
 		if (content.size() == 0)
 			return true;
+		if (!checkInsertColumn(dbName, tableName, content.get(0).keySet()))
+			return false;
 		String sql = combineInsert(tableName, content, isReplace);
 		return execute(dbName, sql);
 	}
@@ -535,6 +1297,8 @@ public class JdbcUtil {
 	 * @return
 	 */
 	public static Integer insertListMapWithId(String dbName, String tableName, List<Map<String, Object>> content, boolean isReplace) {
+		if (!checkInsertColumn(dbName, tableName, content.get(0).keySet()))
+			return null;
 		String sql = combineInsert(tableName, content, isReplace);
 		return executeWithId(dbName, sql);
 	}
@@ -617,6 +1381,714 @@ public class JdbcUtil {
 		return execute(dbName, sql);
 	}
 
+	/**
+	 * 设置批量写入时单条语句的最大字节数，应小于MySQL的max_allowed_packet，默认1MB
+	 * 
+	 * @param bytes-字节数
+	 */
+	public static void setMaxPacketBytes(long bytes) {
+		maxPacketBytes = bytes;
+	}
+
+	/**
+	 * 批量插入或更新，生成insert ... on duplicate key update语句并按包大小分批执行，不会像replace那样删除后重新插入，
+	 * 全部分批在一个事务中执行，任一批失败时全部回滚
+	 * 
+	 * @param dbName-数据库名称
+	 * @param tableName-表名
+	 * @param content-数据内容，所有行的字段需与第一行一致
+	 * @param updateColumns-主键或唯一键冲突时需要更新的字段，为null时更新全部字段，为空时冲突的行保持不变
+	 * @return 影响行数(新插入计1，更新计2，未变化计0)，失败返回null
+	 */
+	public static Long upsertListMap(String dbName, String tableName, List<Map<String, Object>> content, List<String> updateColumns) {
+		if (content.size() == 0)
+			return 0L;
+		List<String> keyList = new ArrayList<String>(content.get(0).keySet());
+		if (!checkInsertColumn(dbName, tableName, content.get(0).keySet()))
+			return null;
+		if (updateColumns == null)
+			updateColumns = keyList;
+		StringBuilder prefixSB = new StringBuilder("insert into ").append(tableName).append(" (");
+		StringBuilder rowSB = new StringBuilder("(");
+		for (int i = 0; i < keyList.size(); i++) {
+			prefixSB.append(i == 0 ? "" : ",").append(keyList.get(i));
+			rowSB.append(i == 0 ? "?" : ",?");
+		}
+		prefixSB.append(") values ");
+		rowSB.append(")");
+		StringBuilder suffixSB = new StringBuilder(" on duplicate key update ");
+		for (int i = 0; i < updateColumns.size(); i++)
+			suffixSB.append(i == 0 ? "" : ",").append(updateColumns.get(i)).append("=values(").append(updateColumns.get(i)).append(")");
+		// 不更新任何字段时写成col=col，冲突的行不变，不使用insert ignore以免忽略其他错误
+		if (updateColumns.isEmpty())
+			suffixSB.append(keyList.get(0)).append("=").append(keyList.get(0));
+		String prefix = prefixSB.toString();
+		String suffix = suffixSB.toString();
+		Connection connection = null;
+		long affected = 0;
+		long startNanos = System.nanoTime(), acquired = 0;
+		Exception error = null;
+		try {
+			connection = getWriteConnection(dbName);
+			acquired = System.nanoTime();
+			connection.setAutoCommit(false);
+			int start = 0;
+			while (start < content.size()) {
+				// 按估算的包大小和占位符上限切分
+				int end = start + 1;
+				long bytes = prefix.length() + suffix.length() + estimateRowBytes(content.get(start), keyList);
+				while (end < content.size() && (end - start + 1) * keyList.size() <= maxPlaceholders) {
+					long rowBytes = estimateRowBytes(content.get(end), keyList);
+					if (bytes + rowBytes > maxPacketBytes)
+						break;
+					bytes += rowBytes;
+					end++;
+				}
+				StringBuilder sqlSB = new StringBuilder(prefix);
+				for (int i = start; i < end; i++)
+					sqlSB.append(i == start ? "" : ",").append(rowSB);
+				sqlSB.append(suffix);
+				PreparedStatement ps = connection.prepareStatement(sqlSB.toString());
+				try {
+					int index = 1;
+					for (int i = start; i < end; i++) {
+						Map<String, Object> row = content.get(i);
+						for (String key : keyList)
+							ps.setObject(index++, row.get(key));
+					}
+					affected += ps.executeUpdate();
+				} finally {
+					ps.close();
+				}
+				start = end;
+			}
+			connection.commit();
+			return affected;
+		} catch (Exception e) {
+			error = e;
+			if (connection != null)
+				try {
+					connection.rollback();
+				} catch (SQLException e1) {
+					e1.printStackTrace();
+				}
+			e.printStackTrace();
+			return null;
+		} finally {
+			recordMetrics(dbName, prefix + "(?+)" + suffix, startNanos, acquired, System.nanoTime(), affected, false, error);
+			invalidateQueryCache(dbName, Collections.singletonList(prefix));
+			close(null, null, connection);
+		}
+	}
+
+	private static long estimateRowBytes(Map<String, Object> row, List<String> keyList) {
+		long bytes = 2 + keyList.size() * 2;
+		for (String key : keyList) {
+			Object value = row.get(key);
+			if (value instanceof byte[])
+				bytes += ((byte[]) value).length * 2;
+			else if (value != null)
+				bytes += value.toString().length() * 3 + 2;
+			else
+				bytes += 4;
+		}
+		return bytes;
+	}
+
+	/**
+	 * 批量更新，每行按各自的条件更新，在一个事务中按输入顺序执行，相邻的同一结构语句合并为JDBC批处理
+	 * 
+	 * @param dbName-数据库名称
+	 * @param tableName-表名
+	 * @param conditionList-条件数组，与content一一对应
+	 * @param contentList-数据内容数组，与condition一一对应
+	 * @return 影响行数，失败返回null
+	 */
+	public static Long updateBatch(String dbName, String tableName, List<Map<String, String>> conditionList, List<Map<String, Object>> contentList) {
+		if (conditionList.size() != contentList.size())
+			return null;
+		if (conditionList.size() == 0)
+			return 0L;
+		Connection connection = null;
+		Map<String, PreparedStatement> psMap = new LinkedHashMap<String, PreparedStatement>();
+		PreparedStatement pending = null;
+		String firstSql = null;
+		long start = System.nanoTime(), acquired = 0, affected = 0;
+		Exception error = null;
+		try {
+			connection = getWriteConnection(dbName);
+			acquired = System.nanoTime();
+			connection.setAutoCommit(false);
+			for (int i = 0; i < conditionList.size(); i++) {
+				Map<String, String> condition = conditionList.get(i);
+				Map<String, Object> content = contentList.get(i);
+				if (condition.size() < 1 || content.size() < 1)
+					throw new SQLException("empty condition or content at row " + i);
+				StringBuilder updateSB = new StringBuilder("update ").append(tableName).append(" set ");
+				List<Object> paramList = new ArrayList<Object>();
+				for (Map.Entry<String, Object> entry : content.entrySet()) {
+					updateSB.append(paramList.isEmpty() ? "" : ",").append(entry.getKey()).append("=?");
+					paramList.add(entry.getValue());
+				}
+				updateSB.append(" where ");
+				int conditionIndex = 0;
+				for (Map.Entry<String, String> entry : condition.entrySet()) {
+					updateSB.append(conditionIndex++ == 0 ? "" : " and ").append(entry.getKey()).append("=?");
+					paramList.add(entry.getValue());
+				}
+				String sql = updateSB.toString();
+				if (firstSql == null)
+					firstSql = sql;
+				PreparedStatement ps = psMap.get(sql);
+				if (ps == null) {
+					ps = connection.prepareStatement(sql);
+					psMap.put(sql, ps);
+				}
+				// 结构变化时先执行之前的批处理，保证同一行的多次更新按输入顺序生效
+				if (pending != null && pending != ps)
+					affected += executeBatch(pending);
+				pending = ps;
+				for (int j = 0; j < paramList.size(); j++)
+					ps.setObject(j + 1, paramList.get(j));
+				ps.addBatch();
+			}
+			affected += executeBatch(pending);
+			connection.commit();
+			return affected;
+		} catch (Exception e) {
+			error = e;
+			if (connection != null)
+				try {
+					connection.rollback();
+				} catch (SQLException e1) {
+					e1.printStackTrace();
+				}
+			e.printStackTrace();
+			return null;
+		} finally {
+			if (firstSql != null) {
+				recordMetrics(dbName, firstSql, start, acquired, System.nanoTime(), affected, false, error);
+				invalidateQueryCache(dbName, Collections.singletonList(firstSql));
+			}
+			for (PreparedStatement ps : psMap.values())
+				close(null, ps, null);
+			close(null, null, connection);
+		}
+	}
+
+	private static long executeBatch(PreparedStatement ps) throws SQLException {
+		long affected = 0;
+		for (int count : ps.executeBatch()) {
+			if (count > 0)
+				affected += count;
+		}
+		return affected;
+	}
+
+	/**
+	 * 增加分片组，使用一致性哈希将分片键映射到datasource，默认每个datasource 160个虚拟节点
+	 * 
+	 * @param groupName-分片组名称
+	 * @param dbNameList-各分片的数据库名称，需已通过addDataSource添加
+	 */
+	public static void addShardGroup(String groupName, List<String> dbNameList) {
+		addShardGroup(groupName, dbNameList, 160);
+	}
+
+	/**
+	 * 增加分片组，使用一致性哈希将分片键映射到datasource
+	 * 
+	 * @param groupName-分片组名称
+	 * @param dbNameList-各分片的数据库名称，需已通过addDataSource添加
+	 * @param virtualNodes-每个分片的虚拟节点数
+	 */
+	public static void addShardGroup(String groupName, List<String> dbNameList, int virtualNodes) {
+		shardRangeMap.remove(groupName);
+		shardHashMap.put(groupName, new ConsistentHash<String>(dbNameList, virtualNodes));
+	}
+
+	/**
+	 * 增加分片组，按数值范围将分片键映射到datasource
+	 * 
+	 * @param groupName-分片组名称
+	 * @param rangeMap-范围下界(包含)与数据库名称的映射，分片键取不大于自身的最大下界
+	 */
+	public static void addShardGroupRange(String groupName, Map<Long, String> rangeMap) {
+		shardHashMap.remove(groupName);
+		shardRangeMap.put(groupName, new TreeMap<Long, String>(rangeMap));
+	}
+
+	/**
+	 * 设置跨分片查询的线程数，需在首次跨分片查询前设置
+	 * 
+	 * @param threads-线程数
+	 */
+	public static void setShardThreads(int threads) {
+		shardThreads = threads;
+	}
+
+	/**
+	 * 获取分片键所在的数据库名称
+	 * 
+	 * @param groupName-分片组名称
+	 * @param shardKey-分片键，范围分片时需为数值
+	 * @return
+	 * @throws IllegalArgumentException 分片组不存在或没有分片对应该分片键时
+	 */
+	public static String getShardName(String groupName, Object shardKey) {
+		ConsistentHash<String> hash = shardHashMap.get(groupName);
+		String dbName = null;
+		if (hash != null) {
+			dbName = hash.get(shardKey.toString());
+		} else {
+			TreeMap<Long, String> rangeMap = shardRangeMap.get(groupName);
+			if (rangeMap == null)
+				throw new IllegalArgumentException("shard group not found: " + groupName);
+			long key = shardKey instanceof Number ? ((Number) shardKey).longValue() : Long.parseLong(shardKey.toString());
+			Map.Entry<Long, String> entry = rangeMap.floorEntry(key);
+			if (entry != null)
+				dbName = entry.getValue();
+		}
+		if (dbName == null)
+			throw new IllegalArgumentException("no shard in " + groupName + " for key: " + shardKey);
+		return dbName;
+	}
+
+	/**
+	 * 获取分片组的全部数据库名称
+	 * 
+	 * @param groupName-分片组名称
+	 * @return
+	 * @throws IllegalArgumentException 分片组不存在时
+	 */
+	public static List<String> getShardNames(String groupName) {
+		ConsistentHash<String> hash = shardHashMap.get(groupName);
+		if (hash != null)
+			return hash.getNodes();
+		TreeMap<Long, String> rangeMap = shardRangeMap.get(groupName);
+		if (rangeMap == null)
+			throw new IllegalArgumentException("shard group not found: " + groupName);
+		List<String> dbNameList = new ArrayList<String>();
+		for (String dbName : rangeMap.values()) {
+			if (!dbNameList.contains(dbName))
+				dbNameList.add(dbName);
+		}
+		return dbNameList;
+	}
+
+	/**
+	 * 在分片键所在分片上获取多列数据
+	 * 
+	 * @param groupName-分片组名称
+	 * @param shardKey-分片键
+	 * @param sql-语句，参数使用?占位
+	 * @param params-参数
+	 * @return
+	 */
+	public static List<Map<String, Object>> getListMapShard(String groupName, Object shardKey, String sql, Object... params) {
+		return getListMap(getShardName(groupName, shardKey), sql, params);
+	}
+
+	/**
+	 * 在分片键所在分片上执行单条语句
+	 * 
+	 * @param groupName-分片组名称
+	 * @param shardKey-分片键
+	 * @param sql-语句
+	 * @return
+	 */
+	public static boolean executeShard(String groupName, Object shardKey, String sql) {
+		return execute(getShardName(groupName, shardKey), sql);
+	}
+
+	/**
+	 * 在全部分片上并行获取多列数据并合并，任一分片失败时返回空列表
+	 * 
+	 * @param groupName-分片组名称
+	 * @param sql-语句，参数使用?占位
+	 * @param params-参数
+	 * @return
+	 */
+	public static List<Map<String, Object>> getListMapAllShards(String groupName, final String sql, final Object... params) {
+		List<Future<List<Map<String, Object>>>> futureList = new ArrayList<Future<List<Map<String, Object>>>>();
+		for (final String dbName : getShardNames(groupName)) {
+			futureList.add(getShardExecutor().submit(new Callable<List<Map<String, Object>>>() {
+				@Override
+				public List<Map<String, Object>> call() throws Exception {
+					return queryListMap(dbName, sql, params);
+				}
+			}));
+		}
+		List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+		try {
+			for (Future<List<Map<String, Object>>> future : futureList)
+				list.addAll(future.get());
+			return list;
+		} catch (ExecutionException e) {
+			LogUtil.error(e.getCause() instanceof Exception ? (Exception) e.getCause() : e, "跨分片查询失败:" + groupName);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (Future<List<Map<String, Object>>> future : futureList)
+			future.cancel(true);
+		return new ArrayList<Map<String, Object>>();
+	}
+
+	/**
+	 * 在全部分片上并行执行单条语句，如DDL
+	 * 
+	 * @param groupName-分片组名称
+	 * @param sql-语句
+	 * @return 全部分片执行成功时返回true
+	 */
+	public static boolean executeAllShards(String groupName, final String sql) {
+		List<Future<Boolean>> futureList = new ArrayList<Future<Boolean>>();
+		for (final String dbName : getShardNames(groupName)) {
+			futureList.add(getShardExecutor().submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					return execute(dbName, sql);
+				}
+			}));
+		}
+		boolean success = true;
+		try {
+			for (Future<Boolean> future : futureList)
+				success &= future.get();
+		} catch (Exception e) {
+			LogUtil.error(e, "跨分片执行失败:" + groupName);
+			return false;
+		}
+		return success;
+	}
+
+	/**
+	 * 跨分片查询使用的有界线程池，队列满时由调用线程执行
+	 */
+	private static synchronized ExecutorService getShardExecutor() {
+		if (shardExecutor == null) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(shardThreads, shardThreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(shardThreads * 16), getThreadFactory("jdbc-shard-"), new ThreadPoolExecutor.CallerRunsPolicy());
+			executor.allowCoreThreadTimeOut(true);
+			shardExecutor = executor;
+		}
+		return shardExecutor;
+	}
+
+	/**
+	 * 设置异步执行的排队超时时间，超时未完成的请求以TimeoutException结束，默认30秒
+	 * 
+	 * @param dbName-数据库名称
+	 * @param timeoutMillis-超时时间(毫秒)
+	 */
+	public static void setAsyncTimeout(String dbName, long timeoutMillis) {
+		asyncTimeoutMap.put(dbName, timeoutMillis);
+	}
+
+	/**
+	 * 异步获取多列数据，执行失败时future以异常结束
+	 * 
+	 * @param dbName-数据库名称
+	 * @param sql-语句，参数使用?占位
+	 * @param params-参数
+	 * @return
+	 */
+	public static CompletableFuture<List<Map<String, Object>>> getListMapAsync(final String dbName, final String sql, final Object... params) {
+		return submitAsync(dbName, new Callable<List<Map<String, Object>>>() {
+			@Override
+			public List<Map<String, Object>> call() throws Exception {
+				return queryListMap(dbName, sql, params);
+			}
+		});
+	}
+
+	/**
+	 * 异步执行单条语句
+	 * 
+	 * @param dbName-数据库名称
+	 * @param sql-语句
+	 * @return
+	 */
+	public static CompletableFuture<Boolean> executeAsync(final String dbName, final String sql) {
+		return submitAsync(dbName, new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				return execute(dbName, sql);
+			}
+		});
+	}
+
+	/**
+	 * 异步执行单条语句，并返回自增键id
+	 * 
+	 * @param dbName-数据库名称
+	 * @param sql-语句
+	 * @return
+	 */
+	public static CompletableFuture<Integer> executeWithIdAsync(final String dbName, final String sql) {
+		return submitAsync(dbName, new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				return executeWithId(dbName, sql);
+			}
+		});
+	}
+
+	/**
+	 * 异步批量插入数据
+	 * 
+	 * @param dbName-数据库名称
+	 * @param tableName-表名
+	 * @param content-数据内容
+	 * @param isReplace-insert或replace
+	 * @return
+	 */
+	public static CompletableFuture<Boolean> insertListMapAsync(final String dbName, final String tableName, final List<Map<String, Object>> content, final boolean isReplace) {
+		return submitAsync(dbName, new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				return insertListMap(dbName, tableName, content, isReplace);
+			}
+		});
+	}
+
+	/**
+	 * 提交到数据库对应的线程池执行，线程数等于连接池的最大连接数，避免争抢连接；超过期限仍在排队的请求不再执行，
+	 * 执行超时时取消正在执行的语句，使连接尽快归还
+	 */
+	private static <T> CompletableFuture<T> submitAsync(String dbName, final Callable<T> callable) {
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		if (!dataSourceMap.containsKey(dbName)) {
+			future.completeExceptionally(new IllegalArgumentException("数据库不存在:" + dbName));
+			return future;
+		}
+		Long timeout = asyncTimeoutMap.get(dbName);
+		final long timeoutMillis = timeout == null ? 30000 : timeout;
+		final long deadline = System.currentTimeMillis() + timeoutMillis;
+		final AsyncStatements statements = new AsyncStatements();
+		try {
+			getAsyncExecutor(dbName).execute(new Runnable() {
+				@Override
+				public void run() {
+					if (future.isDone())
+						return;
+					if (System.currentTimeMillis() > deadline) {
+						future.completeExceptionally(new TimeoutException("queued longer than " + timeoutMillis + "ms"));
+						return;
+					}
+					asyncStatementsLocal.set(statements);
+					try {
+						future.complete(callable.call());
+					} catch (Throwable e) {
+						future.completeExceptionally(e);
+					} finally {
+						asyncStatementsLocal.remove();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+			return future;
+		}
+		final ScheduledFuture<?> timer = getAsyncScheduler().schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (future.completeExceptionally(new TimeoutException("not completed in " + timeoutMillis + "ms")))
+					statements.cancel();
+			}
+		}, timeoutMillis, TimeUnit.MILLISECONDS);
+		future.whenComplete(new BiConsumer<T, Throwable>() {
+			@Override
+			public void accept(T t, Throwable e) {
+				timer.cancel(false);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * 异步请求执行期间创建的Statement，超时时取消，超时后再创建Statement时抛出异常
+	 */
+	private static class AsyncStatements {
+		private final List<Statement> statementList = new ArrayList<Statement>();
+		private boolean cancelled = false;
+
+		synchronized void add(Statement statement) throws SQLException {
+			if (cancelled) {
+				statement.close();
+				throw new SQLTimeoutException("异步执行已超时");
+			}
+			statementList.add(statement);
+		}
+
+		void cancel() {
+			List<Statement> list;
+			synchronized (this) {
+				cancelled = true;
+				list = new ArrayList<Statement>(statementList);
+			}
+			for (Statement statement : list) {
+				try {
+					if (!statement.isClosed())
+						statement.cancel();
+				} catch (SQLException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * 异步请求执行期间，通过连接代理登记创建的Statement
+	 */
+	private static Connection trackAsync(final Connection connection) {
+		final AsyncStatements statements = asyncStatementsLocal.get();
+		if (statements == null)
+			return connection;
+		return (Connection) Proxy.newProxyInstance(JdbcUtil.class.getClassLoader(), new Class<?>[] { Connection.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				Object result;
+				try {
+					result = method.invoke(connection, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+				if (result instanceof Statement)
+					statements.add((Statement) result);
+				return result;
+			}
+		});
+	}
+
+	static ExecutorService getAsyncExecutor(String dbName) {
+		ExecutorService executor = asyncExecutorMap.get(dbName);
+		if (executor != null)
+			return executor;
+		synchronized (asyncExecutorMap) {
+			executor = asyncExecutorMap.get(dbName);
+			if (executor == null) {
+				int threads = getMaxPoolSize(dataSourceMap.get(dbName));
+				if (threads <= 0)
+					threads = Runtime.getRuntime().availableProcessors() * 2;
+				ThreadPoolExecutor threadPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(threads * 64), getThreadFactory("jdbc-async-" + dbName + "-"));
+				threadPool.allowCoreThreadTimeOut(true);
+				executor = threadPool;
+				asyncExecutorMap.put(dbName, executor);
+			}
+			return executor;
+		}
+	}
+
+	private static synchronized ScheduledExecutorService getAsyncScheduler() {
+		if (asyncScheduler == null) {
+			ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, getThreadFactory("jdbc-async-timer-"));
+			scheduler.setRemoveOnCancelPolicy(true);
+			asyncScheduler = scheduler;
+		}
+		return asyncScheduler;
+	}
+
+	/**
+	 * 生成守护线程的线程工厂
+	 */
+	static ThreadFactory getThreadFactory(final String prefix) {
+		return new ThreadFactory() {
+			private final AtomicInteger index = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, prefix + index.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * 按唯一键分页遍历全表，使用键集分页避免limit offset随页数变慢，并在后台预取下一页
+	 * 
+	 * @param dbName-数据库名称
+	 * @param tableName-表名
+	 * @param keyColumns-唯一键字段，按顺序组成排序键
+	 * @param condition-过滤条件，可为null
+	 * @param pageSize-每页行数
+	 * @param params-过滤条件中?对应的参数
+	 * @return 惰性读取的数据流，使用完毕后需调用close释放预取
+	 */
+	public static Stream<Map<String, Object>> streamTable(String dbName, String tableName, List<String> keyColumns, String condition, int pageSize, Object... params) {
+		final JdbcKeysetIterator iterator = new JdbcKeysetIterator(dbName, tableName, keyColumns, condition, Arrays.asList(params), pageSize);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(new Runnable() {
+			@Override
+			public void run() {
+				iterator.close();
+			}
+		});
+	}
+
+	/**
+	 * 整数键转换为long，无符号BIGINT等超出long范围的值和非整数类型返回null
+	 */
+	private static Long toLongKey(Object value) {
+		if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+			return ((Number) value).longValue();
+		if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64)
+			return ((BigInteger) value).longValue();
+		return null;
+	}
+
+	/**
+	 * 按数值主键将全表拆分为互不相交的范围，并行遍历各范围
+	 * 
+	 * @param dbName-数据库名称
+	 * @param tableName-表名
+	 * @param keyColumn-数值类型的唯一键字段
+	 * @param condition-过滤条件，可为null
+	 * @param pageSize-每页行数
+	 * @param splits-范围数量
+	 * @param params-过滤条件中?对应的参数
+	 * @return 并行数据流，行之间无顺序保证，键值范围超出long时退化为单个范围顺序遍历
+	 */
+	public static Stream<Map<String, Object>> streamTableParallel(final String dbName, final String tableName, final String keyColumn, String condition, final int pageSize, int splits, Object... params) {
+		String where = condition == null || condition.trim().length() == 0 ? "" : " where (" + condition + ")";
+		List<Map<String, Object>> list;
+		try {
+			list = queryListMap(dbName, "select min(" + keyColumn + ") as minKey, max(" + keyColumn + ") as maxKey from " + tableName + where, params);
+		} catch (SQLException e) {
+			throw new IllegalStateException("key range query failed: " + tableName, e);
+		}
+		if (list == null || list.isEmpty() || list.get(0).get("minKey") == null)
+			return Stream.empty();
+		Long minKey = toLongKey(list.get(0).get("minKey"));
+		Long maxKey = toLongKey(list.get(0).get("maxKey"));
+		long min, max, step;
+		try {
+			if (minKey == null || maxKey == null)
+				throw new ArithmeticException("key out of long range");
+			min = minKey;
+			max = maxKey;
+			step = Math.addExact(Math.subtractExact(max, min) / Math.max(1, splits), 1);
+		} catch (ArithmeticException e) {
+			return streamTable(dbName, tableName, Collections.singletonList(keyColumn), condition, pageSize, params);
+		}
+		List<long[]> rangeList = new ArrayList<long[]>();
+		for (long start = min; start <= max; start += step) {
+			rangeList.add(new long[] { start, Math.min(max, start + step - 1) });
+			if (start > Long.MAX_VALUE - step)
+				break;
+		}
+		final String baseCondition = condition == null || condition.trim().length() == 0 ? "" : "(" + condition + ") and ";
+		final List<Object> baseParams = Arrays.asList(params);
+		return rangeList.parallelStream().flatMap(new Function<long[], Stream<Map<String, Object>>>() {
+			@Override
+			public Stream<Map<String, Object>> apply(long[] range) {
+				List<Object> rangeParams = new ArrayList<Object>(baseParams);
+				rangeParams.add(range[0]);
+				rangeParams.add(range[1]);
+				return streamTable(dbName, tableName, Collections.singletonList(keyColumn), baseCondition + keyColumn + " >= ? and " + keyColumn + " <= ?", pageSize, rangeParams.toArray());
+			}
+		});
+	}
+
 	/**
 	 * 导出csv
 	 * 
@@ -628,11 +2100,15 @@ public class JdbcUtil {
 		Connection connection = null;
 		PreparedStatement ps = null;
 		ResultSet rs = null;
+		long start = System.nanoTime(), acquired = 0, executed = 0, rows = 0;
+		Exception error = null;
 		try {
 			StringBuffer sb = new StringBuffer();
-			connection = dataSourceMap.get(dbName).getConnection();
+			connection = getReadConnection(dbName);
+			acquired = System.nanoTime();
 			ps = connection.prepareStatement(sql);
 			rs = ps.executeQuery();
+			executed = System.nanoTime();
 			ResultSetMetaData rsmd = rs.getMetaData();
 			// 获取字段
 			int columnCount = rsmd.getColumnCount();
@@ -652,22 +2128,16 @@ public class JdbcUtil {
 				}
 				sb.deleteCharAt(sb.length() - 1);
 				sb.append("\r\n");
+				rows++;
 			}
 			return sb.substring(0, sb.length() - 2);
 		} catch (Exception e) {
+			error = e;
 			e.printStackTrace();
 			return "";
 		} finally {
-			try {
-				if (rs != null)
-					rs.close();
-				if (ps != null)
-					ps.close();
-				if (connection != null)
-					connection.close();
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
+			close(rs, ps, connection);
+			recordMetrics(dbName, sql, start, acquired, executed, rows, true, error);
 		}
 	}
 
@@ -0,0 +1,316 @@
+/**
+ * Redis批量操作，按添加顺序通过pipeline在同一连接上发送，结果按顺序返回
+ *
+ * @class JedisBatch
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+public class JedisBatch {
+
+	final List<Operation> operationList = new ArrayList<Operation>();
+
+	/**
+	 * 单个操作，key用于分片路由，写操作执行后使近端缓存失效
+	 */
+	abstract static class Operation {
+		final String key;
+		final boolean write;
+
+		Operation(String key, boolean write) {
+			this.key = key;
+			this.write = write;
+		}
+
+		abstract Response<?> apply(Pipeline pipeline);
+	}
+
+	/**
+	 * 查询字符串，结果为String
+	 *
+	 * @param key-key名
+	 * @return
+	 */
+	public JedisBatch get(final String key) {
+		operationList.add(new Operation(key, false) {
+			@Override
+			Response<?> apply(Pipeline pipeline) {
+				return pipeline.get(key);
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * 存储字符串，结果为String
+	 *
+	 * @param key-key名
+	 * @param value-数据内容
+	 * @return
+	 */
+	public JedisBatch set(final String key, final String value) {
+		operationList.add(new Operation(key, true) {
+			@Override
+			Response<?> apply(Pipeline pipeline) {
+				return pipeline.set(key, value);
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * 存储字符串并设置超时，结果为String
+	 *
+	 * @param key-key名
+	 * @param seconds-有效时间
+	 * @param value-数据内容
+	 * @return
+	 */
+	public JedisBatch setex(final String key, final int seconds, final String value) {
+		operationList.add(new Operation(key, true) {
+			@Override
+			Response<?> apply(Pipeline pipeline) {
+				return pipeline.setex(key, seconds, value);
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * 设置超时，结果为Long
+	 *
+	 * @param key-key名
+	 * @param seconds-有效时间
+	 * @return
+	 */
+	public JedisBatch expire(final String key, final int seconds) {
+		operationList.add(new Operation(key, true) {
+			@Override
+			Response<?> apply(Pipeline pipeline) {
+				return pipeline.expire(key, seconds);
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * 删除key，结果为Long
+	 *
+	 * @param key-key名
+	 * @return
+	 */
+	public JedisBatch del(final String key) {
+		operationList.add(new Operation(key, true) {
+			@Override
+			Response<?> apply(Pipeline pipeline) {
+				return pipeline.del(key);
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * 写入队列，结果为Long
+	 *
+	 * @param key-key名
+	 * @param values-数据内容
+	 * @return
+	 */
+	public JedisBatch lpush(final String key, final String... values) {
+		operationList.add(new Operation(key, true) {
+			@Override
+			Response<?> apply(Pipeline pipeline) {
+				return pipeline.lpush(key, values);
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * 放回队列，结果为Long
+	 *
+	 * @param key-key名
+	 * @param values-数据内容
+	 * @return
+	 */
+	public JedisBatch rpush(final String key, final String... values) {
+		operationList.add(new Operation(key, true) {
+			@Override
+			Response<?> apply(Pipeline pipeline) {
+				return pipeline.rpush(key, values);
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * 查询哈希表字段，结果为String
+	 *
+	 * @param key-key名
+	 * @param field-field名
+	 * @return
+	 */
+	public JedisBatch hget(final String key, final String field) {
+		operationList.add(new Operation(key, false) {
+			@Override
+			Response<?> apply(Pipeline pipeline) {
+				return pipeline.hget(key, field);
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * 写入哈希表字段，结果为Long
+	 *
+	 * @param key-key名
+	 * @param field-field名
+	 * @param value-数据内容
+	 * @return
+	 */
+	public JedisBatch hset(final String key, final String field, final String value) {
+		operationList.add(new Operation(key, true) {
+			@Override
+			Response<?> apply(Pipeline pipeline) {
+				return pipeline.hset(key, field, value);
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * 查询哈希表，结果为List&lt;String&gt;
+	 *
+	 * @param key-key名
+	 * @param fields-field数组
+	 * @return
+	 */
+	public JedisBatch hmget(final String key, final String... fields) {
+		operationList.add(new Operation(key, false) {
+			@Override
+			Response<?> apply(Pipeline pipeline) {
+				return pipeline.hmget(key, fields);
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * 写入哈希表，结果为String
+	 *
+	 * @param key-key名
+	 * @param hash-哈希表
+	 * @return
+	 */
+	public JedisBatch hmset(final String key, final Map<String, String> hash) {
+		operationList.add(new Operation(key, true) {
+			@Override
+			Response<?> apply(Pipeline pipeline) {
+				return pipeline.hmset(key, hash);
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * 获取全部哈希表，结果为Map&lt;String, String&gt;
+	 *
+	 * @param key-key名
+	 * @return
+	 */
+	public JedisBatch hgetAll(final String key) {
+		operationList.add(new Operation(key, false) {
+			@Override
+			Response<?> apply(Pipeline pipeline) {
+				return pipeline.hgetAll(key);
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * 哈希表计数器，结果为Long
+	 *
+	 * @param key-key名
+	 * @param field-field名
+	 * @param count-增量
+	 * @return
+	 */
+	public JedisBatch hincrBy(final String key, final String field, final long count) {
+		operationList.add(new Operation(key, true) {
+			@Override
+			Response<?> apply(Pipeline pipeline) {
+				return pipeline.hincrBy(key, field, count);
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * 添加HyperLogLog元素，结果为Long，基数估计值变化时为1
+	 *
+	 * @param key-key名
+	 * @param elements-元素
+	 * @return
+	 */
+	public JedisBatch pfadd(final String key, final String... elements) {
+		operationList.add(new Operation(key, true) {
+			@Override
+			Response<?> apply(Pipeline pipeline) {
+				return pipeline.pfadd(key, elements);
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * 设置位，结果为Boolean，即原来的值
+	 *
+	 * @param key-key名
+	 * @param offset-位置
+	 * @param value-值
+	 * @return
+	 */
+	public JedisBatch setbit(final String key, final long offset, final boolean value) {
+		operationList.add(new Operation(key, true) {
+			@Override
+			Response<?> apply(Pipeline pipeline) {
+				return pipeline.setbit(key, offset, value);
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * 查询位，结果为Boolean
+	 *
+	 * @param key-key名
+	 * @param offset-位置
+	 * @return
+	 */
+	public JedisBatch getbit(final String key, final long offset) {
+		operationList.add(new Operation(key, false) {
+			@Override
+			Response<?> apply(Pipeline pipeline) {
+				return pipeline.getbit(key, offset);
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * 操作数量
+	 *
+	 * @return
+	 */
+	public int size() {
+		return operationList.size();
+	}
+}
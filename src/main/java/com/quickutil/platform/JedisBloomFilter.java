@@ -0,0 +1,201 @@
+/**
+ * 基于redis位图的布隆过滤器，k个位置在客户端通过MurmurHash3双重哈希计算，设置和查询通过pipeline一次发送
+ *
+ * @class JedisBloomFilter
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class JedisBloomFilter {
+
+	// redis字符串最大512MB
+	private static final long maxBits = 1L << 32;
+
+	private final String dbName;
+	private final String key;
+	private final long bitSize;
+	private final int hashCount;
+
+	/**
+	 * @param dbName-数据库名称
+	 * @param key-位图的key名
+	 * @param expectedInsertions-预计元素数量
+	 * @param fpp-期望误判率，如0.01
+	 */
+	public JedisBloomFilter(String dbName, String key, long expectedInsertions, double fpp) {
+		this.dbName = dbName;
+		this.key = key;
+		long n = Math.max(1, expectedInsertions);
+		this.bitSize = Math.min(maxBits, Math.max(64, (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)))));
+		this.hashCount = Math.max(1, (int) Math.round((double) bitSize / n * Math.log(2)));
+	}
+
+	public long getBitSize() {
+		return bitSize;
+	}
+
+	public int getHashCount() {
+		return hashCount;
+	}
+
+	/**
+	 * 添加元素
+	 *
+	 * @param element-元素
+	 * @return 是否为新元素，失败返回null
+	 */
+	public Boolean add(String element) {
+		List<Boolean> resultList = addAll(Collections.singletonList(element));
+		return resultList == null ? null : resultList.get(0);
+	}
+
+	/**
+	 * 批量添加元素
+	 *
+	 * @param elementList-元素
+	 * @return 与元素一一对应，任一位原来为0时为true即一定是新元素，失败返回null
+	 */
+	public List<Boolean> addAll(List<String> elementList) {
+		JedisBatch batch = new JedisBatch();
+		for (String element : elementList) {
+			for (long offset : getOffsets(element))
+				batch.setbit(key, offset, true);
+		}
+		return collect(JedisUtil.executeBatch(dbName, batch), elementList.size(), false);
+	}
+
+	/**
+	 * 判断元素是否可能存在
+	 *
+	 * @param element-元素
+	 * @return 为false时一定不存在，失败返回null
+	 */
+	public Boolean mightContain(String element) {
+		List<Boolean> resultList = mightContainAll(Collections.singletonList(element));
+		return resultList == null ? null : resultList.get(0);
+	}
+
+	/**
+	 * 批量判断元素是否可能存在
+	 *
+	 * @param elementList-元素
+	 * @return 与元素一一对应，失败返回null
+	 */
+	public List<Boolean> mightContainAll(List<String> elementList) {
+		JedisBatch batch = new JedisBatch();
+		for (String element : elementList) {
+			for (long offset : getOffsets(element))
+				batch.getbit(key, offset);
+		}
+		return collect(JedisUtil.executeBatch(dbName, batch), elementList.size(), true);
+	}
+
+	/**
+	 * 按元素合并k个位的结果，all为true时要求全部为1，否则任一为0
+	 */
+	private List<Boolean> collect(List<Object> bitList, int size, boolean all) {
+		if (bitList == null || bitList.contains(null))
+			return null;
+		List<Boolean> resultList = new ArrayList<Boolean>(size);
+		for (int i = 0; i < size; i++) {
+			boolean result = all;
+			for (int j = 0; j < hashCount; j++) {
+				boolean bit = (Boolean) bitList.get(i * hashCount + j);
+				if (all && !bit)
+					result = false;
+				else if (!all && !bit)
+					result = true;
+			}
+			resultList.add(result);
+		}
+		return resultList;
+	}
+
+	/**
+	 * 使用128位MurmurHash3的两个64位结果做双重哈希，得到k个位置
+	 */
+	long[] getOffsets(String element) {
+		byte[] bytes = element.getBytes(StandardCharsets.UTF_8);
+		long[] hash = murmur3(bytes);
+		long[] offsets = new long[hashCount];
+		long combined = hash[0];
+		for (int i = 0; i < hashCount; i++) {
+			offsets[i] = (combined & Long.MAX_VALUE) % bitSize;
+			combined += hash[1];
+		}
+		return offsets;
+	}
+
+	/**
+	 * 种子为0的128位MurmurHash3(x64)，返回h1和h2
+	 */
+	static long[] murmur3(byte[] bytes) {
+		final long c1 = 0x87c37b91114253d5L;
+		final long c2 = 0x4cf5ad432745937fL;
+		long h1 = 0;
+		long h2 = 0;
+		int length = bytes.length;
+		int blocks = length / 16;
+		for (int i = 0; i < blocks; i++) {
+			long k1 = getLong(bytes, i * 16);
+			long k2 = getLong(bytes, i * 16 + 8);
+			h1 ^= mixK1(k1, c1, c2);
+			h1 = Long.rotateLeft(h1, 27) + h2;
+			h1 = h1 * 5 + 0x52dce729;
+			h2 ^= mixK2(k2, c1, c2);
+			h2 = Long.rotateLeft(h2, 31) + h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+		long k1 = 0;
+		long k2 = 0;
+		int tail = blocks * 16;
+		for (int i = length - tail - 1; i >= 8; i--)
+			k2 ^= (bytes[tail + i] & 0xffL) << ((i - 8) * 8);
+		for (int i = Math.min(7, length - tail - 1); i >= 0; i--)
+			k1 ^= (bytes[tail + i] & 0xffL) << (i * 8);
+		h1 ^= mixK1(k1, c1, c2);
+		h2 ^= mixK2(k2, c1, c2);
+		h1 ^= length;
+		h2 ^= length;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix(h1);
+		h2 = fmix(h2);
+		h1 += h2;
+		h2 += h1;
+		return new long[] { h1, h2 };
+	}
+
+	private static long getLong(byte[] bytes, int offset) {
+		long value = 0;
+		for (int i = 7; i >= 0; i--)
+			value = (value << 8) | (bytes[offset + i] & 0xffL);
+		return value;
+	}
+
+	private static long mixK1(long k1, long c1, long c2) {
+		k1 *= c1;
+		k1 = Long.rotateLeft(k1, 31);
+		return k1 * c2;
+	}
+
+	private static long mixK2(long k2, long c1, long c2) {
+		k2 *= c2;
+		k2 = Long.rotateLeft(k2, 33);
+		return k2 * c1;
+	}
+
+	private static long fmix(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+}
@@ -0,0 +1,197 @@
+/**
+ * Redis Cluster路由，维护slot到主节点的映射和各节点的连接池，处理MOVED/ASK重定向
+ *
+ * @class JedisClusterRouter
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
+import redis.clients.util.JedisClusterCRC16;
+
+class JedisClusterRouter {
+
+	static final int SLOTS = 16384;
+	private static final int maxRedirects = 5;
+	private static final long minRefreshMillis = 1000;
+
+	private final Set<String> seedSet = new LinkedHashSet<String>();
+	private final int timeout;
+	private final String password;
+	private final JedisPoolConfig config;
+	private final Map<String, JedisPool> nodeMap = new ConcurrentHashMap<String, JedisPool>();
+	private volatile String[] slotNodes = new String[SLOTS];
+	private long lastRefresh = 0;
+
+	/**
+	 * @param nodes-种子节点，host:port以逗号分隔
+	 * @param timeout-超时时间
+	 * @param password-密码
+	 * @param config-各节点连接池配置
+	 */
+	JedisClusterRouter(String nodes, int timeout, String password, JedisPoolConfig config) {
+		for (String node : nodes.split(",")) {
+			if (node.trim().length() > 0)
+				seedSet.add(node.trim());
+		}
+		this.timeout = timeout;
+		this.password = password;
+		this.config = config;
+		refresh();
+	}
+
+	static int getSlot(String key) {
+		return JedisClusterCRC16.getSlot(key);
+	}
+
+	/**
+	 * 在slot所在主节点执行，遇到MOVED时更新映射后重试，遇到ASK时向目标节点发送ASKING后重试，metrics不为null时记录借用连接的等待时间，
+	 * 连接失败只在命令发出前(借用或建立连接)重试，命令发出后的失败(如读取超时)可能已在服务端执行，直接抛出
+	 */
+	<T> T execute(int slot, JedisUtil.JedisAction<T> action, JedisMetrics metrics) {
+		String askNode = null;
+		for (int attempt = 0;; attempt++) {
+			Jedis jedis = null;
+			boolean sent = false;
+			try {
+				jedis = JedisMetrics.getResource(metrics, getNodePool(askNode != null ? askNode : getNodeName(slot)));
+				if (askNode != null)
+					jedis.asking();
+				sent = true;
+				return action.execute(jedis);
+			} catch (JedisMovedDataException e) {
+				if (attempt >= maxRedirects)
+					throw e;
+				slotNodes[e.getSlot()] = getNodeName(e.getTargetNode());
+				refresh();
+				askNode = null;
+			} catch (JedisAskDataException e) {
+				if (attempt >= maxRedirects)
+					throw e;
+				askNode = getNodeName(e.getTargetNode());
+			} catch (JedisConnectionException e) {
+				refresh();
+				if (sent || attempt >= maxRedirects)
+					throw e;
+				askNode = null;
+			} finally {
+				if (jedis != null)
+					jedis.close();
+			}
+		}
+	}
+
+	/**
+	 * 获取slot所在主节点名称，未知时刷新映射
+	 */
+	String getNodeName(int slot) {
+		String node = slotNodes[slot];
+		if (node == null) {
+			refresh();
+			node = slotNodes[slot];
+		}
+		if (node == null)
+			throw new JedisConnectionException("slot未分配节点:" + slot);
+		return node;
+	}
+
+	/**
+	 * 获取节点的连接池，不存在时创建
+	 */
+	JedisPool getNodePool(String node) {
+		JedisPool pool = nodeMap.get(node);
+		if (pool != null)
+			return pool;
+		synchronized (nodeMap) {
+			pool = nodeMap.get(node);
+			if (pool == null) {
+				int index = node.lastIndexOf(':');
+				pool = new JedisPool(config, node.substring(0, index), Integer.parseInt(node.substring(index + 1)), timeout, password, 0);
+				nodeMap.put(node, pool);
+			}
+			return pool;
+		}
+	}
+
+	/**
+	 * 获取全部主节点名称
+	 */
+	Set<String> getMasterNodes() {
+		Set<String> masterSet = new LinkedHashSet<String>();
+		for (String node : slotNodes) {
+			if (node != null)
+				masterSet.add(node);
+		}
+		return masterSet;
+	}
+
+	/**
+	 * 获取全部主节点的连接池
+	 */
+	List<JedisPool> getMasterPools() {
+		List<JedisPool> poolList = new ArrayList<JedisPool>();
+		for (String node : getMasterNodes())
+			poolList.add(getNodePool(node));
+		return poolList;
+	}
+
+	/**
+	 * 通过CLUSTER SLOTS刷新slot映射，依次尝试已知节点和种子节点，间隔过短的重复刷新会被忽略
+	 */
+	@SuppressWarnings("unchecked")
+	synchronized void refresh() {
+		long now = System.currentTimeMillis();
+		if (now - lastRefresh < minRefreshMillis)
+			return;
+		lastRefresh = now;
+		Set<String> candidateSet = new LinkedHashSet<String>(nodeMap.keySet());
+		candidateSet.addAll(seedSet);
+		for (String node : candidateSet) {
+			Jedis jedis = null;
+			try {
+				jedis = getNodePool(node).getResource();
+				String[] newSlotNodes = new String[SLOTS];
+				for (Object slotInfo : jedis.clusterSlots()) {
+					List<Object> infoList = (List<Object>) slotInfo;
+					int start = ((Long) infoList.get(0)).intValue();
+					int end = ((Long) infoList.get(1)).intValue();
+					List<Object> master = (List<Object>) infoList.get(2);
+					String masterNode = new String((byte[]) master.get(0), StandardCharsets.UTF_8) + ":" + master.get(1);
+					for (int slot = start; slot <= end; slot++)
+						newSlotNodes[slot] = masterNode;
+				}
+				slotNodes = newSlotNodes;
+				return;
+			} catch (Exception e) {
+				LogUtil.error(e, "集群slot映射刷新失败:" + node);
+			} finally {
+				if (jedis != null)
+					jedis.close();
+			}
+		}
+	}
+
+	void close() {
+		for (JedisPool pool : nodeMap.values())
+			pool.close();
+		nodeMap.clear();
+	}
+
+	private static String getNodeName(HostAndPort hostAndPort) {
+		return hostAndPort.getHost() + ":" + hostAndPort.getPort();
+	}
+}
@@ -0,0 +1,247 @@
+/**
+ * Redis二进制值编解码，提供protobuf、紧凑JSON和超过阈值时Deflate压缩的实现，编码缓冲和压缩器按线程复用
+ *
+ * @class JedisCodec
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.google.gson.Gson;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+
+public abstract class JedisCodec<T> {
+
+	private static final byte RAW = 0;
+	private static final byte DEFLATE = 1;
+	// 单次使用超过该大小的线程缓冲不再复用，避免偶发的大对象长期占用内存
+	private static final int maxPooledBufferSize = 1024 * 1024;
+	private static final Gson gson = new Gson();
+
+	private static final ThreadLocal<PooledBuffer> bufferLocal = new ThreadLocal<PooledBuffer>();
+	private static final ThreadLocal<Deflater> deflaterLocal = new ThreadLocal<Deflater>();
+	private static final ThreadLocal<Inflater> inflaterLocal = new ThreadLocal<Inflater>();
+	private static final ThreadLocal<byte[]> chunkLocal = new ThreadLocal<byte[]>();
+
+	/**
+	 * 编码
+	 *
+	 * @param value-值
+	 * @return
+	 */
+	public abstract byte[] encode(T value);
+
+	/**
+	 * 解码数组的一段，避免截取时复制
+	 *
+	 * @param bytes-数据
+	 * @param offset-起始位置
+	 * @param length-长度
+	 * @return
+	 */
+	public abstract T decode(byte[] bytes, int offset, int length);
+
+	/**
+	 * 解码
+	 *
+	 * @param bytes-数据
+	 * @return
+	 */
+	public T decode(byte[] bytes) {
+		return decode(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * protobuf编解码
+	 *
+	 * @param parser-消息的解析器，如Message.parser()
+	 * @return
+	 */
+	public static <T extends MessageLite> JedisCodec<T> protobuf(final Parser<T> parser) {
+		return new JedisCodec<T>() {
+			@Override
+			public byte[] encode(T value) {
+				return value.toByteArray();
+			}
+
+			@Override
+			public T decode(byte[] bytes, int offset, int length) {
+				try {
+					return parser.parseFrom(bytes, offset, length);
+				} catch (InvalidProtocolBufferException e) {
+					throw new IllegalArgumentException(e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * 紧凑JSON编解码，UTF-8字节直接写入线程缓冲，不生成中间字符串
+	 *
+	 * @param type-值的类型，泛型类型可使用TypeToken获取
+	 * @return
+	 */
+	public static <T> JedisCodec<T> json(final Type type) {
+		return new JedisCodec<T>() {
+			@Override
+			public byte[] encode(T value) {
+				PooledBuffer buffer = borrowBuffer();
+				try {
+					Writer writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+					gson.toJson(value, type, writer);
+					writer.flush();
+					return buffer.toByteArray();
+				} catch (IOException e) {
+					throw new IllegalArgumentException(e);
+				} finally {
+					returnBuffer(buffer);
+				}
+			}
+
+			@Override
+			public T decode(byte[] bytes, int offset, int length) {
+				return gson.fromJson(new InputStreamReader(new ByteArrayInputStream(bytes, offset, length), StandardCharsets.UTF_8), type);
+			}
+		};
+	}
+
+	/**
+	 * 在编码结果前增加一个字节的标记，达到阈值且压缩后更小时使用Deflate压缩
+	 *
+	 * @param codec-内层编解码
+	 * @param threshold-压缩阈值(字节)
+	 * @return
+	 */
+	public static <T> JedisCodec<T> deflate(final JedisCodec<T> codec, final int threshold) {
+		return new JedisCodec<T>() {
+			@Override
+			public byte[] encode(T value) {
+				byte[] raw = codec.encode(value);
+				if (raw.length >= threshold) {
+					byte[] compressed = compress(raw);
+					if (compressed != null)
+						return compressed;
+				}
+				byte[] bytes = new byte[raw.length + 1];
+				bytes[0] = RAW;
+				System.arraycopy(raw, 0, bytes, 1, raw.length);
+				return bytes;
+			}
+
+			@Override
+			public T decode(byte[] bytes, int offset, int length) {
+				if (bytes[offset] == RAW)
+					return codec.decode(bytes, offset + 1, length - 1);
+				PooledBuffer buffer = decompress(bytes, offset + 1, length - 1);
+				try {
+					return codec.decode(buffer.getBuffer(), 0, buffer.size());
+				} finally {
+					returnBuffer(buffer);
+				}
+			}
+		};
+	}
+
+	/**
+	 * 压缩为带标记的数组，压缩后不小于原数据时返回null
+	 */
+	private static byte[] compress(byte[] raw) {
+		Deflater deflater = deflaterLocal.get();
+		if (deflater == null) {
+			deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+			deflaterLocal.set(deflater);
+		}
+		byte[] chunk = getChunk();
+		PooledBuffer buffer = borrowBuffer();
+		try {
+			buffer.write(DEFLATE);
+			deflater.reset();
+			deflater.setInput(raw);
+			deflater.finish();
+			while (!deflater.finished()) {
+				buffer.write(chunk, 0, deflater.deflate(chunk));
+				if (buffer.size() > raw.length)
+					return null;
+			}
+			return buffer.size() > raw.length ? null : buffer.toByteArray();
+		} finally {
+			returnBuffer(buffer);
+		}
+	}
+
+	private static PooledBuffer decompress(byte[] bytes, int offset, int length) {
+		Inflater inflater = inflaterLocal.get();
+		if (inflater == null) {
+			inflater = new Inflater();
+			inflaterLocal.set(inflater);
+		}
+		byte[] chunk = getChunk();
+		PooledBuffer buffer = borrowBuffer();
+		try {
+			inflater.reset();
+			inflater.setInput(bytes, offset, length);
+			while (!inflater.finished()) {
+				int count = inflater.inflate(chunk);
+				if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new IllegalArgumentException("压缩数据不完整");
+				buffer.write(chunk, 0, count);
+			}
+			return buffer;
+		} catch (DataFormatException e) {
+			returnBuffer(buffer);
+			throw new IllegalArgumentException(e);
+		} catch (RuntimeException e) {
+			returnBuffer(buffer);
+			throw e;
+		}
+	}
+
+	private static byte[] getChunk() {
+		byte[] chunk = chunkLocal.get();
+		if (chunk == null) {
+			chunk = new byte[8192];
+			chunkLocal.set(chunk);
+		}
+		return chunk;
+	}
+
+	/**
+	 * 借用线程缓冲，嵌套使用时新建
+	 */
+	private static PooledBuffer borrowBuffer() {
+		PooledBuffer buffer = bufferLocal.get();
+		if (buffer == null)
+			return new PooledBuffer();
+		bufferLocal.set(null);
+		buffer.reset();
+		return buffer;
+	}
+
+	private static void returnBuffer(PooledBuffer buffer) {
+		if (buffer.getBuffer().length <= maxPooledBufferSize)
+			bufferLocal.set(buffer);
+	}
+
+	private static class PooledBuffer extends ByteArrayOutputStream {
+		PooledBuffer() {
+			super(1024);
+		}
+
+		byte[] getBuffer() {
+			return buf;
+		}
+	}
+}
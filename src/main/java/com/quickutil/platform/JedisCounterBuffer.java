@@ -0,0 +1,225 @@
+/**
+ * 哈希表计数器写缓冲，进程内按key和field合并增量，定期按分片通过pipeline批量写入，关闭时写入剩余增量
+ *
+ * @class JedisCounterBuffer
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+
+public class JedisCounterBuffer {
+
+	private static final int flushChunkSize = 1000;
+	private static ScheduledExecutorService flusher;
+
+	private final String dbName;
+	private volatile Generation current = new Generation();
+	private final ScheduledFuture<?> flushFuture;
+	private final Thread shutdownHook;
+
+	/**
+	 * 一个写入周期的增量，写入前先封存，等待正在累加的线程退出后再读取，读取时无需与累加线程竞争
+	 */
+	private static class Generation {
+		final ConcurrentHashMap<String, ConcurrentHashMap<String, LongAdder>> counterMap = new ConcurrentHashMap<String, ConcurrentHashMap<String, LongAdder>>();
+		final LongAdder writers = new LongAdder();
+		volatile boolean sealed = false;
+	}
+
+	/**
+	 * @param dbName-数据库名称
+	 * @param flushMillis-写入间隔(毫秒)
+	 */
+	public JedisCounterBuffer(String dbName, long flushMillis) {
+		this.dbName = dbName;
+		this.flushFuture = getFlusher().scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+		this.shutdownHook = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		});
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * 累加计数，在下次写入时与同一key和field的其他增量合并
+	 *
+	 * @param key-key名
+	 * @param field-field名
+	 * @param delta-增量
+	 */
+	public void incr(String key, String field, long delta) {
+		while (true) {
+			Generation generation = current;
+			generation.writers.increment();
+			try {
+				if (generation.sealed)
+					continue;
+				ConcurrentHashMap<String, LongAdder> fieldMap = generation.counterMap.get(key);
+				if (fieldMap == null) {
+					ConcurrentHashMap<String, LongAdder> newFieldMap = new ConcurrentHashMap<String, LongAdder>();
+					fieldMap = generation.counterMap.putIfAbsent(key, newFieldMap);
+					if (fieldMap == null)
+						fieldMap = newFieldMap;
+				}
+				LongAdder adder = fieldMap.get(field);
+				if (adder == null) {
+					LongAdder newAdder = new LongAdder();
+					adder = fieldMap.putIfAbsent(field, newAdder);
+					if (adder == null)
+						adder = newAdder;
+				}
+				adder.add(delta);
+				return;
+			} finally {
+				generation.writers.decrement();
+			}
+		}
+	}
+
+	/**
+	 * 写入当前累积的全部增量，确定未写入的增量合并回缓冲等待下次写入，
+	 * 写入结果未知(命令发出后连接失败或读取超时)和无法写入(如key类型错误)的增量记录日志后丢弃，避免重复累加
+	 *
+	 * @return 是否全部写入成功
+	 */
+	public synchronized boolean flush() {
+		Generation generation = current;
+		current = new Generation();
+		generation.sealed = true;
+		while (generation.writers.sum() != 0)
+			Thread.yield();
+		// 按分片分组写入，写入失败时只合并回该分片的增量，避免其他分片重复累加
+		Map<String, Chunk> chunkMap = new HashMap<String, Chunk>();
+		boolean success = true;
+		for (Map.Entry<String, ConcurrentHashMap<String, LongAdder>> keyEntry : generation.counterMap.entrySet()) {
+			String shardName = JedisUtil.getShardName(dbName, keyEntry.getKey());
+			for (Map.Entry<String, LongAdder> fieldEntry : keyEntry.getValue().entrySet()) {
+				long delta = fieldEntry.getValue().sum();
+				if (delta == 0)
+					continue;
+				Chunk chunk = chunkMap.get(shardName);
+				if (chunk == null) {
+					chunk = new Chunk();
+					chunkMap.put(shardName, chunk);
+				}
+				chunk.keyList.add(keyEntry.getKey());
+				chunk.fieldList.add(fieldEntry.getKey());
+				chunk.countList.add(delta);
+				if (chunk.keyList.size() >= flushChunkSize) {
+					success &= write(chunk);
+					chunkMap.remove(shardName);
+				}
+			}
+		}
+		for (Chunk chunk : chunkMap.values())
+			success &= write(chunk);
+		return success;
+	}
+
+	private static class Chunk {
+		final List<String> keyList = new ArrayList<String>();
+		final List<String> fieldList = new ArrayList<String>();
+		final List<Long> countList = new ArrayList<Long>();
+	}
+
+	/**
+	 * 同一分片的增量通过pipeline逐个HINCRBY写入，每个增量的结果单独判断，不使用Lua脚本，避免脚本中途失败时已执行的部分被重复累加
+	 */
+	private boolean write(final Chunk chunk) {
+		final boolean[] sent = new boolean[1];
+		final List<Integer> retryList = new ArrayList<Integer>();
+		final List<Integer> droppedList = new ArrayList<Integer>();
+		try {
+			JedisUtil.execute(dbName, "PIPELINE HINCRBY", chunk.keyList.get(0), new JedisUtil.JedisAction<Void>() {
+				@Override
+				public Void execute(Jedis jedis) {
+					sent[0] = true;
+					Pipeline pipeline = jedis.pipelined();
+					List<Response<Long>> responseList = new ArrayList<Response<Long>>(chunk.keyList.size());
+					for (int i = 0; i < chunk.keyList.size(); i++)
+						responseList.add(pipeline.hincrBy(chunk.keyList.get(i), chunk.fieldList.get(i), chunk.countList.get(i)));
+					pipeline.sync();
+					for (int i = 0; i < responseList.size(); i++) {
+						try {
+							responseList.get(i).get();
+						} catch (JedisRedirectionException e) {
+							// 集群迁移slot时被MOVED/ASK的增量未执行，下次写入时重新路由
+							retryList.add(i);
+						} catch (JedisDataException e) {
+							droppedList.add(i);
+						}
+					}
+					JedisUtil.invalidateNearCache(dbName, jedis, new LinkedHashSet<String>(chunk.keyList));
+					return null;
+				}
+			});
+		} catch (Exception e) {
+			if (sent[0]) {
+				LogUtil.error(e, "计数器写入结果未知，为避免重复累加已丢弃:" + dbName + "，数量" + chunk.keyList.size());
+				return false;
+			}
+			LogUtil.error(e, "计数器写入失败，合并回缓冲:" + dbName + "，数量" + chunk.keyList.size());
+			for (int i = 0; i < chunk.keyList.size(); i++)
+				incr(chunk.keyList.get(i), chunk.fieldList.get(i), chunk.countList.get(i));
+			return false;
+		}
+		for (int i : droppedList)
+			LogUtil.info("计数器增量无法写入，已丢弃:" + chunk.keyList.get(i) + " " + chunk.fieldList.get(i) + "，增量" + chunk.countList.get(i));
+		for (int i : retryList)
+			incr(chunk.keyList.get(i), chunk.fieldList.get(i), chunk.countList.get(i));
+		return retryList.isEmpty() && droppedList.isEmpty();
+	}
+
+	/**
+	 * 当前缓冲的key数量
+	 */
+	public int size() {
+		return current.counterMap.size();
+	}
+
+	/**
+	 * 停止定期写入并写入剩余增量
+	 *
+	 * @return 是否全部写入成功
+	 */
+	public boolean close() {
+		flushFuture.cancel(false);
+		try {
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		} catch (IllegalStateException e) {
+			// 已在关闭过程中，由钩子写入
+		}
+		return flush();
+	}
+
+	private static synchronized ScheduledExecutorService getFlusher() {
+		if (flusher == null) {
+			flusher = Executors.newSingleThreadScheduledExecutor(JdbcUtil.getThreadFactory("jedis-counter-flush-"));
+		}
+		return flusher;
+	}
+}
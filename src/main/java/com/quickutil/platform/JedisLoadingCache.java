@@ -0,0 +1,292 @@
+/**
+ * Redis旁路缓存加载器，未命中时调用加载接口并写入，同一进程内同一key只加载一次，
+ * 可选SET NX PX分布式锁、按加载耗时提前概率刷新、过期时间随机抖动和空值缓存
+ *
+ * @class JedisLoadingCache
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadLocalRandom;
+
+import redis.clients.jedis.Jedis;
+
+public class JedisLoadingCache<T> {
+
+	private static final byte VALUE = 0;
+	private static final byte EMPTY = 1;
+	// 标记1字节，加载耗时4字节，逻辑过期时间8字节
+	private static final int HEADER = 13;
+	private static final long lockPollMillis = 50;
+	private static final JedisScript unlockLua = new JedisScript("if redis.call('GET',KEYS[1])==ARGV[1] then return redis.call('DEL',KEYS[1]); end; return 0;");
+
+	private final String dbName;
+	private final JedisCodec<T> codec;
+	private final Loader<T> loader;
+	private final long ttlMillis;
+	private double jitter = 0.1;
+	private long negativeTtlMillis = 0;
+	private long lockMillis = 0;
+	private double beta = 1.0;
+	private final ConcurrentHashMap<String, FutureTask<T>> loadingMap = new ConcurrentHashMap<String, FutureTask<T>>();
+
+	/**
+	 * 加载接口，返回null表示数据不存在
+	 */
+	public interface Loader<T> {
+		T load(String key) throws Exception;
+	}
+
+	private static class CacheEntry<T> {
+		final T value;
+		final long deltaMillis;
+		final long expireTime;
+
+		CacheEntry(T value, long deltaMillis, long expireTime) {
+			this.value = value;
+			this.deltaMillis = deltaMillis;
+			this.expireTime = expireTime;
+		}
+	}
+
+	/**
+	 * @param dbName-数据库名称
+	 * @param codec-值的编解码
+	 * @param loader-加载接口
+	 * @param ttlSeconds-缓存有效期(秒)
+	 */
+	public JedisLoadingCache(String dbName, JedisCodec<T> codec, Loader<T> loader, int ttlSeconds) {
+		this.dbName = dbName;
+		this.codec = codec;
+		this.loader = loader;
+		this.ttlMillis = ttlSeconds * 1000L;
+	}
+
+	/**
+	 * 设置有效期的随机抖动比例，默认0.1即有效期在±10%内随机，避免同时写入的key同时过期
+	 *
+	 * @param jitter-抖动比例
+	 */
+	public JedisLoadingCache<T> setJitter(double jitter) {
+		this.jitter = jitter;
+		return this;
+	}
+
+	/**
+	 * 设置空值缓存的有效期，默认0即不缓存空值
+	 *
+	 * @param negativeTtlSeconds-有效期(秒)
+	 */
+	public JedisLoadingCache<T> setNegativeTtl(int negativeTtlSeconds) {
+		this.negativeTtlMillis = negativeTtlSeconds * 1000L;
+		return this;
+	}
+
+	/**
+	 * 开启跨进程加载锁，未获得锁的进程等待其他进程写入，默认不开启
+	 *
+	 * @param lockMillis-锁的有效期(毫秒)，也是最长等待时间
+	 */
+	public JedisLoadingCache<T> setLockMillis(long lockMillis) {
+		this.lockMillis = lockMillis;
+		return this;
+	}
+
+	/**
+	 * 设置提前刷新系数，越大越早刷新，加载越慢越早刷新，为0时关闭提前刷新，默认1.0
+	 *
+	 * @param beta-系数
+	 */
+	public JedisLoadingCache<T> setBeta(double beta) {
+		this.beta = beta;
+		return this;
+	}
+
+	/**
+	 * 获取缓存，未命中或需要提前刷新时加载，提前刷新期间其他线程继续返回旧值
+	 *
+	 * @param key-key名
+	 * @return 加载失败且没有旧值时返回null
+	 */
+	public T get(String key) {
+		CacheEntry<T> entry = read(key);
+		if (entry != null && !shouldRefresh(entry))
+			return entry.value;
+		return load(key, entry);
+	}
+
+	/**
+	 * 删除缓存
+	 *
+	 * @param key-key名
+	 */
+	public void invalidate(String key) {
+		JedisUtil.deleteKey(dbName, key);
+	}
+
+	/**
+	 * 概率提前刷新，距离过期越近、加载耗时越长，刷新概率越大
+	 */
+	private boolean shouldRefresh(CacheEntry<T> entry) {
+		if (beta <= 0)
+			return false;
+		double random = ThreadLocalRandom.current().nextDouble();
+		return System.currentTimeMillis() - entry.deltaMillis * beta * Math.log(random) >= entry.expireTime;
+	}
+
+	private T load(final String key, final CacheEntry<T> stale) {
+		FutureTask<T> task = new FutureTask<T>(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				return loadAndStore(key, stale);
+			}
+		});
+		FutureTask<T> loading = loadingMap.putIfAbsent(key, task);
+		if (loading != null && stale != null)
+			return stale.value;
+		try {
+			if (loading != null)
+				return loading.get();
+			task.run();
+			return task.get();
+		} catch (ExecutionException e) {
+			LogUtil.error(e.getCause() instanceof Exception ? (Exception) e.getCause() : e, "缓存加载失败:" + dbName + "，key:" + key);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (loading == null)
+				loadingMap.remove(key, task);
+		}
+		return stale == null ? null : stale.value;
+	}
+
+	private T loadAndStore(String key, CacheEntry<T> stale) throws Exception {
+		String token = null;
+		if (lockMillis > 0) {
+			token = UUID.randomUUID().toString();
+			Boolean locked = lock(key, token);
+			if (locked != null && !locked) {
+				if (stale != null)
+					return stale.value;
+				CacheEntry<T> entry = waitFor(key);
+				if (entry != null)
+					return entry.value;
+			}
+			if (locked == null || !locked)
+				token = null;
+		}
+		try {
+			// 获得锁后重新读取，上一个持锁进程可能刚写入新值后释放锁，此时无需再次加载
+			if (token != null) {
+				CacheEntry<T> entry = read(key);
+				if (entry != null && (stale == null || entry.expireTime > stale.expireTime))
+					return entry.value;
+			}
+			long start = System.currentTimeMillis();
+			T value = loader.load(key);
+			store(key, value, System.currentTimeMillis() - start);
+			return value;
+		} finally {
+			if (token != null)
+				unlock(key, token);
+		}
+	}
+
+	/**
+	 * 获取加载锁，redis不可用时返回null
+	 */
+	private Boolean lock(String key, final String token) {
+		final String lockKey = getLockKey(key);
+		try {
+			return JedisUtil.execute(dbName, "SET", lockKey, new JedisUtil.JedisAction<Boolean>() {
+				@Override
+				public Boolean execute(Jedis jedis) {
+					return "OK".equals(jedis.set(lockKey, token, "NX", "PX", lockMillis));
+				}
+			});
+		} catch (Exception e) {
+			LogUtil.error(e, "缓存加载锁获取失败:" + dbName + "，key:" + key);
+		}
+		return null;
+	}
+
+	private void unlock(String key, String token) {
+		try {
+			JedisUtil.evalScript(dbName, unlockLua, Collections.singletonList(getLockKey(key)), Collections.singletonList(token));
+		} catch (Exception e) {
+			LogUtil.error(e, "缓存加载锁释放失败:" + dbName + "，key:" + key);
+		}
+	}
+
+	/**
+	 * 锁与缓存key使用相同的hash tag，加锁和解锁都按锁key路由，分片组和集群下与缓存key位于同一节点
+	 */
+	private static String getLockKey(String key) {
+		return (key.indexOf('{') >= 0 ? key : "{" + key + "}") + ":lock";
+	}
+
+	/**
+	 * 等待持有锁的进程写入，超过锁的有效期仍未写入时返回null，由当前线程加载
+	 */
+	private CacheEntry<T> waitFor(String key) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + lockMillis;
+		while (System.currentTimeMillis() < deadline) {
+			Thread.sleep(lockPollMillis);
+			CacheEntry<T> entry = read(key);
+			if (entry != null)
+				return entry;
+		}
+		return null;
+	}
+
+	private CacheEntry<T> read(String key) {
+		byte[] bytes = JedisUtil.getBytes(dbName, key);
+		if (bytes == null || bytes.length < HEADER)
+			return null;
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			byte flag = buffer.get();
+			long deltaMillis = buffer.getInt();
+			long expireTime = buffer.getLong();
+			T value = flag == EMPTY ? null : codec.decode(bytes, HEADER, bytes.length - HEADER);
+			return new CacheEntry<T>(value, deltaMillis, expireTime);
+		} catch (Exception e) {
+			// 无法解码的旧数据视为未命中，重新加载后覆盖
+			LogUtil.error(e, "缓存数据无法解码，视为未命中:" + dbName + "，key:" + key);
+		}
+		return null;
+	}
+
+	private void store(final String key, T value, long deltaMillis) {
+		long ttl = value == null ? negativeTtlMillis : ttlMillis;
+		if (ttl <= 0)
+			return;
+		if (jitter > 0)
+			ttl = Math.max(1, (long) (ttl * (1 + jitter * (ThreadLocalRandom.current().nextDouble() * 2 - 1))));
+		byte[] payload = value == null ? new byte[0] : codec.encode(value);
+		final ByteBuffer buffer = ByteBuffer.allocate(HEADER + payload.length);
+		buffer.put(value == null ? EMPTY : VALUE);
+		buffer.putInt((int) Math.min(Integer.MAX_VALUE, deltaMillis));
+		buffer.putLong(System.currentTimeMillis() + ttl);
+		buffer.put(payload);
+		final long expireMillis = ttl;
+		try {
+			JedisUtil.execute(dbName, "PSETEX", key, new JedisUtil.JedisAction<String>() {
+				@Override
+				public String execute(Jedis jedis) {
+					return jedis.psetex(key.getBytes(StandardCharsets.UTF_8), expireMillis, buffer.array());
+				}
+			});
+		} catch (Exception e) {
+			LogUtil.error(e, "缓存写入失败:" + dbName + "，key:" + key);
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/**
+ * Redis访问统计，按命令记录耗时、超时和错误，记录借用连接等待时间、连接池耗尽次数和慢命令
+ *
+ * @class JedisMetrics
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import java.net.SocketTimeoutException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisException;
+
+class JedisMetrics {
+
+	private static final int maxCommands = 1000;
+	private static final int maxSlowCommands = 100;
+	private static final int maxKeyLength = 200;
+	private static final String OTHER = "other";
+
+	private final long slowCommandNanos;
+	private final ConcurrentHashMap<String, CommandStat> statMap = new ConcurrentHashMap<String, CommandStat>();
+	private final LatencyHistogram borrowHistogram = new LatencyHistogram();
+	private final LongAdder exhausted = new LongAdder();
+	private final LongAdder connectionErrors = new LongAdder();
+	private final LinkedList<Map<String, Object>> slowCommandList = new LinkedList<Map<String, Object>>();
+
+	private static class CommandStat {
+		final LatencyHistogram total = new LatencyHistogram();
+		final LongAdder timeouts = new LongAdder();
+		final LongAdder errors = new LongAdder();
+	}
+
+	/**
+	 * @param slowCommandMillis-慢命令阈值(毫秒)
+	 */
+	JedisMetrics(long slowCommandMillis) {
+		this.slowCommandNanos = slowCommandMillis * 1000000;
+	}
+
+	/**
+	 * 从连接池借用连接并记录等待时间，metrics为null时直接借用
+	 *
+	 * @param metrics-统计，可为null
+	 * @param pool-连接池
+	 * @return
+	 */
+	static Jedis getResource(JedisMetrics metrics, JedisPool pool) {
+		if (metrics == null)
+			return pool.getResource();
+		long start = System.nanoTime();
+		try {
+			return pool.getResource();
+		} catch (JedisException e) {
+			// 连接池耗尽时为JedisException且原因为NoSuchElementException，其他为建立连接失败
+			if (e.getCause() instanceof NoSuchElementException)
+				metrics.exhausted.increment();
+			else
+				metrics.connectionErrors.increment();
+			throw e;
+		} finally {
+			metrics.borrowHistogram.record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * 记录一次命令，耗时包含借用连接和集群重定向
+	 *
+	 * @param command-命令名称
+	 * @param key-key名
+	 * @param nanos-耗时(纳秒)
+	 * @param error-异常，成功时为null
+	 */
+	void record(String command, String key, long nanos, Exception error) {
+		CommandStat stat = getStat(command);
+		stat.total.record(nanos);
+		if (error != null) {
+			if (isTimeout(error))
+				stat.timeouts.increment();
+			else
+				stat.errors.increment();
+		}
+		if (nanos >= slowCommandNanos) {
+			Map<String, Object> slowCommand = new LinkedHashMap<String, Object>();
+			slowCommand.put("time", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()));
+			slowCommand.put("command", command);
+			slowCommand.put("key", key != null && key.length() > maxKeyLength ? key.substring(0, maxKeyLength) + "..." : key);
+			slowCommand.put("millis", nanos / 1000000.0);
+			slowCommand.put("error", error == null ? null : error.toString());
+			synchronized (slowCommandList) {
+				slowCommandList.addFirst(slowCommand);
+				if (slowCommandList.size() > maxSlowCommands)
+					slowCommandList.removeLast();
+			}
+		}
+	}
+
+	/**
+	 * 读取超时表现为JedisConnectionException包装的SocketTimeoutException
+	 */
+	private static boolean isTimeout(Exception error) {
+		for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+			if (cause instanceof SocketTimeoutException)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * 获取统计快照
+	 */
+	Map<String, Object> toMap() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("borrow", borrowHistogram.toMap());
+		map.put("exhausted", exhausted.sum());
+		map.put("connectionErrors", connectionErrors.sum());
+		Map<String, Object> commandMap = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, CommandStat> entry : statMap.entrySet()) {
+			CommandStat stat = entry.getValue();
+			Map<String, Object> itemMap = new LinkedHashMap<String, Object>();
+			itemMap.put("total", stat.total.toMap());
+			itemMap.put("timeouts", stat.timeouts.sum());
+			itemMap.put("errors", stat.errors.sum());
+			commandMap.put(entry.getKey(), itemMap);
+		}
+		map.put("command", commandMap);
+		synchronized (slowCommandList) {
+			map.put("slowCommand", new ArrayList<Map<String, Object>>(slowCommandList));
+		}
+		return map;
+	}
+
+	private CommandStat getStat(String command) {
+		CommandStat stat = statMap.get(command);
+		if (stat != null)
+			return stat;
+		if (statMap.size() >= maxCommands)
+			command = OTHER;
+		stat = new CommandStat();
+		CommandStat old = statMap.putIfAbsent(command, stat);
+		return old == null ? stat : old;
+	}
+}
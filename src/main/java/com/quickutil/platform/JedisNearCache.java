@@ -0,0 +1,168 @@
+/**
+ * Redis进程内近端缓存，按key数量LRU淘汰并支持TTL，通过pub/sub频道接收其他进程写入产生的失效消息
+ *
+ * @class JedisNearCache
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+
+class JedisNearCache {
+
+	static final String CHANNEL = "quickutil:nearcache";
+	static final String SEPARATOR = "\n";
+	static final Object NULL = new Object();
+
+	private final String dbName;
+	private final JedisPool pool;
+	private final int maxSize;
+	private final long ttlMillis;
+	private long generation = 0;
+	private final LinkedHashMap<String, Map<String, CacheEntry>> entryMap;
+	private volatile JedisPubSub pubSub;
+	private volatile boolean closed = false;
+
+	private static class CacheEntry {
+		final Object value;
+		final long expireTime;
+
+		CacheEntry(Object value, long expireTime) {
+			this.value = value;
+			this.expireTime = expireTime;
+		}
+	}
+
+	/**
+	 * @param dbName-数据库名称
+	 * @param pool-用于订阅失效频道的连接池，订阅期间占用一个连接
+	 * @param maxSize-缓存的key数量上限
+	 * @param ttlMillis-缓存有效期(毫秒)
+	 */
+	JedisNearCache(String dbName, JedisPool pool, final int maxSize, long ttlMillis) {
+		this.dbName = dbName;
+		this.pool = pool;
+		this.maxSize = maxSize;
+		this.ttlMillis = ttlMillis;
+		this.entryMap = new LinkedHashMap<String, Map<String, CacheEntry>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Map<String, CacheEntry>> eldest) {
+				return size() > JedisNearCache.this.maxSize;
+			}
+		};
+		JdbcUtil.getThreadFactory("jedis-nearcache-" + dbName + "-").newThread(new Runnable() {
+			@Override
+			public void run() {
+				subscribe();
+			}
+		}).start();
+	}
+
+	/**
+	 * 查询缓存，未命中返回null，命中的空值返回NULL
+	 *
+	 * @param key-redis的key
+	 * @param view-读取方式，如get、hgetall
+	 */
+	synchronized Object get(String key, String view) {
+		Map<String, CacheEntry> viewMap = entryMap.get(key);
+		if (viewMap == null)
+			return null;
+		CacheEntry entry = viewMap.get(view);
+		if (entry == null)
+			return null;
+		if (entry.expireTime < System.currentTimeMillis()) {
+			viewMap.remove(view);
+			return null;
+		}
+		return entry.value;
+	}
+
+	/**
+	 * 读取redis前获取版本，写入缓存时版本已变化说明期间发生过失效，放弃写入
+	 */
+	synchronized long getGeneration() {
+		return generation;
+	}
+
+	synchronized void put(String key, String view, Object value, long generation) {
+		if (generation != this.generation || pubSub == null || !pubSub.isSubscribed())
+			return;
+		Map<String, CacheEntry> viewMap = entryMap.get(key);
+		if (viewMap == null) {
+			viewMap = new HashMap<String, CacheEntry>();
+			entryMap.put(key, viewMap);
+		}
+		viewMap.put(view, new CacheEntry(value == null ? NULL : value, System.currentTimeMillis() + ttlMillis));
+	}
+
+	synchronized void invalidate(Collection<String> keys) {
+		generation++;
+		for (String key : keys)
+			entryMap.remove(key);
+	}
+
+	synchronized void clear() {
+		generation++;
+		entryMap.clear();
+	}
+
+	synchronized int size() {
+		return entryMap.size();
+	}
+
+	void close() {
+		closed = true;
+		JedisPubSub current = pubSub;
+		if (current != null && current.isSubscribed())
+			current.unsubscribe();
+		clear();
+	}
+
+	/**
+	 * 持续订阅失效频道，连接断开期间可能丢失消息，因此每次重新订阅时清空缓存
+	 */
+	private void subscribe() {
+		while (!closed) {
+			Jedis jedis = null;
+			try {
+				jedis = pool.getResource();
+				pubSub = new JedisPubSub() {
+					@Override
+					public void onSubscribe(String channel, int subscribedChannels) {
+						clear();
+					}
+
+					@Override
+					public void onMessage(String channel, String message) {
+						invalidate(Arrays.asList(message.split(SEPARATOR)));
+					}
+				};
+				jedis.subscribe(pubSub, CHANNEL);
+			} catch (Exception e) {
+				clear();
+				if (closed)
+					break;
+				LogUtil.error(e, "近端缓存失效频道订阅中断:" + dbName);
+				try {
+					Thread.sleep(1000);
+				} catch (InterruptedException ie) {
+					break;
+				}
+			} finally {
+				if (jedis != null)
+					jedis.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,247 @@
+/**
+ * Redis队列消费框架，每个队列一个拉取线程阻塞批量取出，共享工作线程池处理，
+ * 本地预取批次数有上限，处理成功后确认，失败时放回队列
+ *
+ * @class JedisQueueConsumer
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import redis.clients.jedis.Jedis;
+
+public class JedisQueueConsumer {
+
+	private static final int waitSeconds = 1;
+
+	private final String consumerName;
+	private final int batchSize;
+	private final int prefetch;
+	private final long visibilityMillis;
+	private final ThreadPoolExecutor workerPool;
+	private final Map<String, QueueState> queueMap = new LinkedHashMap<String, QueueState>();
+	private volatile boolean running = true;
+
+	/**
+	 * 批量处理接口，正常返回视为处理成功，抛出异常时整批放回队列
+	 */
+	public interface Handler {
+		void handle(List<String> list) throws Exception;
+	}
+
+	private class QueueState {
+		final String dbName;
+		final String key;
+		final Handler handler;
+		final JedisReliableQueue queue;
+		final Semaphore permits = new Semaphore(prefetch);
+		final LatencyHistogram handleHistogram = new LatencyHistogram();
+		final LongAdder fetched = new LongAdder();
+		final LongAdder processed = new LongAdder();
+		final LongAdder failed = new LongAdder();
+		Thread fetcher;
+		long lastProcessed = 0;
+		long lastTime = System.nanoTime();
+
+		QueueState(String dbName, String key, Handler handler) {
+			this.dbName = dbName;
+			this.key = key;
+			this.handler = handler;
+			this.queue = new JedisReliableQueue(dbName, key, consumerName, visibilityMillis);
+		}
+	}
+
+	private class BatchTask implements Runnable {
+		final QueueState state;
+		final List<String> list;
+
+		BatchTask(QueueState state, List<String> list) {
+			this.state = state;
+			this.list = list;
+		}
+
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			try {
+				state.handler.handle(list);
+				state.queue.ack(list);
+				state.processed.add(list.size());
+			} catch (Exception e) {
+				LogUtil.error(e, "队列消费失败:" + state.key + "，放回" + list.size() + "条");
+				state.queue.release(list);
+				state.failed.add(list.size());
+			} finally {
+				state.handleHistogram.record(System.nanoTime() - start);
+				state.permits.release();
+			}
+		}
+	}
+
+	/**
+	 * @param consumerName-消费者名称，用于处理中列表和租约，同一队列的各进程需不同
+	 * @param threads-工作线程数
+	 * @param batchSize-每次取出的最大数量，即每次调用Handler的最大数量
+	 * @param prefetch-每个队列已取出未处理完成的最大批次数，达到上限时暂停拉取
+	 * @param visibilityMillis-可见超时(毫秒)，需大于拉取的阻塞时间，进程退出后未确认的元素在此时间后由其他消费者回收
+	 */
+	public JedisQueueConsumer(String consumerName, int threads, int batchSize, int prefetch, long visibilityMillis) {
+		this.consumerName = consumerName;
+		this.batchSize = batchSize;
+		this.prefetch = Math.max(1, prefetch);
+		this.visibilityMillis = Math.max(visibilityMillis, waitSeconds * 3000L);
+		// 队列长度受各队列的预取上限约束
+		this.workerPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), JdbcUtil.getThreadFactory("jedis-consumer-" + consumerName + "-"));
+	}
+
+	/**
+	 * 开始消费队列，先取回本消费者上次未确认的元素并启动超时回收，拉取期间每个队列占用一个连接
+	 *
+	 * @param dbName-数据库名称
+	 * @param key-队列key名
+	 * @param handler-处理接口
+	 */
+	public synchronized void subscribe(String dbName, String key, Handler handler) {
+		if (!running)
+			throw new IllegalStateException("消费者已关闭:" + consumerName);
+		if (queueMap.containsKey(dbName + ":" + key))
+			return;
+		final QueueState state = new QueueState(dbName, key, handler);
+		state.queue.recover();
+		state.queue.startReaper(visibilityMillis);
+		state.fetcher = JdbcUtil.getThreadFactory("jedis-consumer-" + consumerName + "-fetch-").newThread(new Runnable() {
+			@Override
+			public void run() {
+				fetch(state);
+			}
+		});
+		queueMap.put(dbName + ":" + key, state);
+		state.fetcher.start();
+	}
+
+	/**
+	 * 拉取循环，预取已满时等待工作线程释放，等待期间续期租约
+	 */
+	private void fetch(QueueState state) {
+		while (running) {
+			try {
+				if (!state.permits.tryAcquire(visibilityMillis / 3, TimeUnit.MILLISECONDS)) {
+					state.queue.extend();
+					continue;
+				}
+			} catch (InterruptedException e) {
+				break;
+			}
+			List<String> list = running ? state.queue.pop(batchSize, waitSeconds) : null;
+			if (list == null || list.isEmpty()) {
+				state.permits.release();
+				if (list == null && running)
+					sleep(1000);
+				continue;
+			}
+			state.fetched.add(list.size());
+			try {
+				workerPool.execute(new BatchTask(state, list));
+			} catch (RejectedExecutionException e) {
+				// 关闭等待超时后拉取线程才返回，已取出的批次直接放回
+				state.queue.release(list);
+				state.permits.release();
+			}
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * 停止拉取并等待已取出的批次处理完成，超时未开始处理的批次放回队列
+	 *
+	 * @param timeoutMillis-最长等待时间(毫秒)
+	 * @return 是否在超时前全部处理完成
+	 */
+	public boolean shutdown(long timeoutMillis) {
+		List<QueueState> stateList;
+		synchronized (this) {
+			running = false;
+			stateList = new ArrayList<QueueState>(queueMap.values());
+		}
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		for (QueueState state : stateList) {
+			try {
+				state.fetcher.join(Math.max(1, deadline - System.currentTimeMillis()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		workerPool.shutdown();
+		boolean drained = false;
+		try {
+			drained = workerPool.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (!drained) {
+			for (Runnable runnable : workerPool.shutdownNow()) {
+				BatchTask task = (BatchTask) runnable;
+				task.state.queue.release(task.list);
+			}
+		}
+		for (QueueState state : stateList)
+			state.queue.close();
+		return drained;
+	}
+
+	/**
+	 * 获取各队列的统计，lag为队列中等待的数量，buffered为已取出未处理完成的批次数，throughput为距上次获取统计的每秒处理数
+	 *
+	 * @return
+	 */
+	public synchronized Map<String, Object> getMetrics() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, QueueState> entry : queueMap.entrySet()) {
+			final QueueState state = entry.getValue();
+			Map<String, Object> queueStatus = new LinkedHashMap<String, Object>();
+			Long lag = null;
+			try {
+				lag = JedisUtil.execute(state.dbName, "LLEN", state.key, new JedisUtil.JedisAction<Long>() {
+					@Override
+					public Long execute(Jedis jedis) {
+						return jedis.llen(state.key);
+					}
+				});
+			} catch (Exception e) {
+				LogUtil.error(e, "队列长度查询失败:" + state.dbName + "，key:" + state.key);
+			}
+			long processed = state.processed.sum();
+			long now = System.nanoTime();
+			double seconds = (now - state.lastTime) / 1e9;
+			queueStatus.put("lag", lag);
+			queueStatus.put("buffered", prefetch - state.permits.availablePermits());
+			queueStatus.put("fetched", state.fetched.sum());
+			queueStatus.put("processed", processed);
+			queueStatus.put("failed", state.failed.sum());
+			queueStatus.put("throughput", seconds > 0 ? (processed - state.lastProcessed) / seconds : 0);
+			queueStatus.put("handle", state.handleHistogram.toMap());
+			state.lastProcessed = processed;
+			state.lastTime = now;
+			map.put(entry.getKey(), queueStatus);
+		}
+		map.put("activeThreads", workerPool.getActiveCount());
+		return map;
+	}
+}
@@ -0,0 +1,166 @@
+/**
+ * Redis分布式限流，提供滑动窗口和令牌桶两种Lua脚本实现，使用服务端时间，
+ * 可按批次领取许可缓存在本地，高频调用时减少访问redis
+ *
+ * @class JedisRateLimiter
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class JedisRateLimiter {
+
+	private static final int maxLocalKeys = 10000;
+
+	// 滑动窗口按当前窗口计数加上一窗口计数乘以剩余比例估算，哈希表只保存窗口编号和两个计数
+	private static final JedisScript slidingWindowLua = new JedisScript("redis.replicate_commands(); local time=redis.call('TIME'); local now=time[1]*1000+math.floor(time[2]/1000); local window=tonumber(ARGV[1]); local limit=tonumber(ARGV[2]); local requested=tonumber(ARGV[3]); local index=math.floor(now/window); local data=redis.call('HMGET',KEYS[1],'w','c','p'); local w=tonumber(data[1]) or -1; local c=tonumber(data[2]) or 0; local p=tonumber(data[3]) or 0; if w~=index then if w==index-1 then p=c; else p=0; end; c=0; end; local used=p*(1-(now-index*window)/window)+c; local granted=math.max(0,math.min(requested,math.floor(limit-used))); if granted<requested and ARGV[4]~='1' then granted=0; end; c=c+granted; redis.call('HMSET',KEYS[1],'w',index,'c',c,'p',p); redis.call('PEXPIRE',KEYS[1],window*2); return granted;");
+	private static final JedisScript tokenBucketLua = new JedisScript("redis.replicate_commands(); local time=redis.call('TIME'); local now=time[1]*1000+math.floor(time[2]/1000); local rate=tonumber(ARGV[1]); local capacity=tonumber(ARGV[2]); local requested=tonumber(ARGV[3]); local data=redis.call('HMGET',KEYS[1],'t','ts'); local tokens=tonumber(data[1]) or capacity; local ts=tonumber(data[2]) or now; if now>ts then tokens=math.min(capacity,tokens+(now-ts)*rate/1000); ts=now; end; local granted=math.max(0,math.min(requested,math.floor(tokens))); if granted<requested and ARGV[4]~='1' then granted=0; end; tokens=tokens-granted; redis.call('HMSET',KEYS[1],'t',tostring(tokens),'ts',ts); redis.call('PEXPIRE',KEYS[1],math.ceil(capacity*1000/rate)+1000); return granted;");
+
+	private final String dbName;
+	private final JedisScript script;
+	private final String param1;
+	private final String param2;
+	private int localBatch = 0;
+	private long localMillis = 0;
+	private final ConcurrentHashMap<String, LocalPermits> localMap = new ConcurrentHashMap<String, LocalPermits>();
+	private final Object[] lockArray = new Object[64];
+
+	private static class LocalPermits {
+		final AtomicLong remaining;
+		final long expireTime;
+		final boolean denied;
+
+		LocalPermits(long remaining, long expireTime, boolean denied) {
+			this.remaining = new AtomicLong(remaining);
+			this.expireTime = expireTime;
+			this.denied = denied;
+		}
+	}
+
+	private JedisRateLimiter(String dbName, JedisScript script, String param1, String param2) {
+		this.dbName = dbName;
+		this.script = script;
+		this.param1 = param1;
+		this.param2 = param2;
+		for (int i = 0; i < lockArray.length; i++)
+			lockArray[i] = new Object();
+	}
+
+	/**
+	 * 滑动窗口限流
+	 *
+	 * @param dbName-数据库名称
+	 * @param windowMillis-窗口长度(毫秒)
+	 * @param limit-窗口内的许可数
+	 * @return
+	 */
+	public static JedisRateLimiter slidingWindow(String dbName, long windowMillis, long limit) {
+		return new JedisRateLimiter(dbName, slidingWindowLua, String.valueOf(windowMillis), String.valueOf(limit));
+	}
+
+	/**
+	 * 令牌桶限流
+	 *
+	 * @param dbName-数据库名称
+	 * @param permitsPerSecond-每秒补充的许可数
+	 * @param capacity-桶容量，即允许的突发数量
+	 * @return
+	 */
+	public static JedisRateLimiter tokenBucket(String dbName, double permitsPerSecond, long capacity) {
+		return new JedisRateLimiter(dbName, tokenBucketLua, String.valueOf(permitsPerSecond), String.valueOf(capacity));
+	}
+
+	/**
+	 * 开启本地许可缓存，每次从redis领取一批许可，在有效期内本地扣减，过期未用完的许可作废，领取不到时在有效期内直接拒绝，
+	 * 各进程领取的许可不超过限额，但领取后未使用的部分会使实际通过量低于限额
+	 *
+	 * @param batch-每次领取的数量
+	 * @param localMillis-本地许可的有效期(毫秒)
+	 */
+	public JedisRateLimiter setLocalBatch(int batch, long localMillis) {
+		this.localBatch = batch;
+		this.localMillis = localMillis;
+		return this;
+	}
+
+	/**
+	 * 获取一个许可
+	 *
+	 * @param key-限流的key
+	 * @return 是否获得，redis不可用时放行
+	 */
+	public boolean tryAcquire(String key) {
+		if (localBatch <= 1)
+			return tryAcquire(key, 1);
+		Boolean local = tryLocal(localMap.get(key));
+		if (local != null)
+			return local;
+		// 同一key只有一个线程领取，其他key不受影响
+		synchronized (lockArray[(key.hashCode() & 0x7fffffff) % lockArray.length]) {
+			local = tryLocal(localMap.get(key));
+			if (local != null)
+				return local;
+			Long granted = eval(key, localBatch, true);
+			if (granted == null)
+				return true;
+			if (localMap.size() >= maxLocalKeys)
+				removeExpired();
+			// 领取不到时在本地有效期内直接拒绝，避免超限的key每次都访问redis
+			localMap.put(key, new LocalPermits(Math.max(0, granted - 1), System.currentTimeMillis() + localMillis, granted == 0));
+			return granted > 0;
+		}
+	}
+
+	/**
+	 * 使用本地许可，需要从redis领取时返回null
+	 */
+	private static Boolean tryLocal(LocalPermits permits) {
+		if (permits == null || permits.expireTime <= System.currentTimeMillis())
+			return null;
+		if (permits.denied)
+			return false;
+		return permits.remaining.decrementAndGet() >= 0 ? true : null;
+	}
+
+	private void removeExpired() {
+		long now = System.currentTimeMillis();
+		Iterator<LocalPermits> iterator = localMap.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().expireTime <= now)
+				iterator.remove();
+		}
+	}
+
+	/**
+	 * 获取指定数量的许可，不足时不扣减
+	 *
+	 * @param key-限流的key
+	 * @param permits-数量
+	 * @return 是否获得，redis不可用时放行
+	 */
+	public boolean tryAcquire(String key, long permits) {
+		Long granted = eval(key, permits, false);
+		return granted == null || granted >= permits;
+	}
+
+	/**
+	 * 批量领取许可，不足时领取剩余的部分
+	 *
+	 * @param key-限流的key
+	 * @param permits-最大数量
+	 * @return 领取到的数量，redis不可用时返回null
+	 */
+	public Long acquireUpTo(String key, long permits) {
+		return eval(key, permits, true);
+	}
+
+	private Long eval(String key, long permits, boolean partial) {
+		Object result = JedisUtil.evalScript(dbName, script, Collections.singletonList(key), Arrays.asList(param1, param2, String.valueOf(permits), partial ? "1" : "0"));
+		return result instanceof Long ? (Long) result : null;
+	}
+}
@@ -0,0 +1,275 @@
+/**
+ * Redis可靠队列，与pushQueue写入的队列兼容，取出的元素原子地移入消费者的处理中列表，确认后删除，
+ * 消费者租约超过可见超时未续期时由回收任务放回队列
+ *
+ * @class JedisReliableQueue
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import redis.clients.jedis.Jedis;
+
+public class JedisReliableQueue {
+
+	private static ScheduledExecutorService reaper;
+
+	// 租约截止时间使用Redis服务端时间，避免各进程时钟不一致导致提前回收，TIME之后写入需开启按效果复制
+	private static final String nowLua = "redis.replicate_commands(); local time=redis.call('TIME'); local now=tonumber(time[1])*1000+math.floor(tonumber(time[2])/1000); ";
+	private static final JedisScript popLua = new JedisScript(nowLua + "redis.call('ZADD',KEYS[3],now+tonumber(ARGV[2]),ARGV[3]); local list={}; for i=1,tonumber(ARGV[1]) do local element=redis.call('RPOPLPUSH',KEYS[1],KEYS[2]); if element then table.insert(list,element); else break; end; end; return list;");
+	private static final JedisScript ackLua = new JedisScript(nowLua + "redis.call('ZADD',KEYS[2],now+tonumber(ARGV[1]),ARGV[2]); local count=0; for i=3,#ARGV do count=count+redis.call('LREM',KEYS[1],-1,ARGV[i]); end; return count;");
+	private static final JedisScript extendLua = new JedisScript(nowLua + "return redis.call('ZADD',KEYS[1],now+tonumber(ARGV[1]),ARGV[2]);");
+	private static final JedisScript releaseLua = new JedisScript("local count=0; for i=1,#ARGV do if redis.call('LREM',KEYS[1],-1,ARGV[i])>0 then redis.call('RPUSH',KEYS[2],ARGV[i]); count=count+1; end; end; return count;");
+	private static final JedisScript reapLua = new JedisScript(nowLua + "local score=redis.call('ZSCORE',KEYS[1],ARGV[1]); if ARGV[2]~='1' and (not score or tonumber(score)>now) then return -1; end; local count=0; local element=redis.call('LPOP',KEYS[2]); while element do redis.call('RPUSH',KEYS[3],element); count=count+1; element=redis.call('LPOP',KEYS[2]); end; redis.call('ZREM',KEYS[1],ARGV[1]); return count;");
+
+	private final String dbName;
+	private final String key;
+	private final String consumer;
+	private final long visibilityMillis;
+	private final String tag;
+	private final String processingKey;
+	private final String leaseKey;
+	private ScheduledFuture<?> reapFuture;
+
+	/**
+	 * @param dbName-数据库名称
+	 * @param key-队列key名，与pushQueue使用的key相同
+	 * @param consumer-消费者名称，同一队列内唯一，重启后使用相同名称可通过recover立即取回未确认的元素
+	 * @param visibilityMillis-可见超时(毫秒)，消费者在此时间内未pop、ack或extend时其处理中的元素被放回队列
+	 */
+	public JedisReliableQueue(String dbName, String key, String consumer, long visibilityMillis) {
+		this.dbName = dbName;
+		this.key = key;
+		this.consumer = consumer;
+		this.visibilityMillis = visibilityMillis;
+		// 处理中列表和租约与队列使用相同的hash tag，分片组和集群下位于同一节点
+		this.tag = key.indexOf('{') >= 0 ? key : "{" + key + "}";
+		this.processingKey = tag + ":processing:" + consumer;
+		this.leaseKey = tag + ":leases";
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public String getConsumer() {
+		return consumer;
+	}
+
+	/**
+	 * 取出元素并移入处理中列表，队列为空时阻塞等待
+	 *
+	 * @param count-最大数量
+	 * @param waitSeconds-队列为空时的最长等待时间(秒)，为0时不等待
+	 * @return 取出的元素，超时返回空列表，失败返回null
+	 */
+	public List<String> pop(final int count, final int waitSeconds) {
+		try {
+			// 阻塞前先写入覆盖等待时间的租约，避免阻塞取出后进程退出导致元素无人回收
+			List<String> list = popScript(count, visibilityMillis + waitSeconds * 1000L);
+			if (!list.isEmpty() || waitSeconds <= 0)
+				return list;
+			// 阻塞等待单独记录为BRPOPLPUSH，不计入EVALSHA pop的耗时
+			String element = JedisUtil.execute(dbName, "BRPOPLPUSH", key, new JedisUtil.JedisAction<String>() {
+				@Override
+				public String execute(Jedis jedis) {
+					return jedis.brpoplpush(key, processingKey, waitSeconds);
+				}
+			});
+			if (element == null)
+				return list;
+			list = new ArrayList<String>();
+			list.add(element);
+			list.addAll(popScript(count - 1, visibilityMillis));
+			return list;
+		} catch (Exception e) {
+			LogUtil.error(e, "可靠队列取出失败:" + key);
+		}
+		return null;
+	}
+
+	private List<String> popScript(final int count, final long leaseMillis) {
+		return JedisUtil.execute(dbName, "EVALSHA pop", key, new JedisUtil.JedisAction<List<String>>() {
+			@Override
+			@SuppressWarnings("unchecked")
+			public List<String> execute(Jedis jedis) {
+				return (List<String>) popLua.eval(jedis, Arrays.asList(key, processingKey, leaseKey), Arrays.asList(String.valueOf(count), String.valueOf(leaseMillis), consumer));
+			}
+		});
+	}
+
+	/**
+	 * 确认处理完成，从处理中列表删除并续期租约
+	 *
+	 * @param list-已处理的元素
+	 * @return 删除的数量，失败返回null
+	 */
+	public Long ack(final List<String> list) {
+		if (list.isEmpty())
+			return 0L;
+		try {
+			return JedisUtil.execute(dbName, "EVALSHA ack", key, new JedisUtil.JedisAction<Long>() {
+				@Override
+				public Long execute(Jedis jedis) {
+					List<String> argList = new ArrayList<String>(list.size() + 2);
+					argList.add(String.valueOf(visibilityMillis));
+					argList.add(consumer);
+					argList.addAll(list);
+					return (Long) ackLua.eval(jedis, Arrays.asList(processingKey, leaseKey), argList);
+				}
+			});
+		} catch (Exception e) {
+			LogUtil.error(e, "可靠队列确认失败:" + key);
+		}
+		return null;
+	}
+
+	/**
+	 * 放弃处理，从处理中列表移回队列，下次优先取出
+	 *
+	 * @param list-放弃的元素
+	 * @return 放回的数量，失败返回null
+	 */
+	public Long release(final List<String> list) {
+		if (list.isEmpty())
+			return 0L;
+		try {
+			return JedisUtil.execute(dbName, "EVALSHA release", key, new JedisUtil.JedisAction<Long>() {
+				@Override
+				public Long execute(Jedis jedis) {
+					return (Long) releaseLua.eval(jedis, Arrays.asList(processingKey, key), list);
+				}
+			});
+		} catch (Exception e) {
+			LogUtil.error(e, "可靠队列放回失败:" + key);
+		}
+		return null;
+	}
+
+	/**
+	 * 续期租约，处理耗时超过可见超时的消费者需定期调用
+	 */
+	public boolean extend() {
+		try {
+			return JedisUtil.execute(dbName, "EVALSHA extend", key, new JedisUtil.JedisAction<Boolean>() {
+				@Override
+				public Boolean execute(Jedis jedis) {
+					extendLua.eval(jedis, Collections.singletonList(leaseKey), Arrays.asList(String.valueOf(visibilityMillis), consumer));
+					return true;
+				}
+			});
+		} catch (Exception e) {
+			LogUtil.error(e, "可靠队列续期失败:" + key);
+		}
+		return false;
+	}
+
+	/**
+	 * 将本消费者处理中的全部元素放回队列，用于重启后立即恢复
+	 *
+	 * @return 放回的数量，失败返回null
+	 */
+	public Long recover() {
+		try {
+			return JedisUtil.execute(dbName, "EVALSHA recover", key, new JedisUtil.JedisAction<Long>() {
+				@Override
+				public Long execute(Jedis jedis) {
+					return Math.max(0, reapScript(jedis, consumer, true));
+				}
+			});
+		} catch (Exception e) {
+			LogUtil.error(e, "可靠队列恢复失败:" + key);
+		}
+		return null;
+	}
+
+	/**
+	 * 回收租约已过期的消费者的处理中元素，任一进程执行即可
+	 *
+	 * @return 放回的数量，失败返回null
+	 */
+	public Long reap() {
+		try {
+			return JedisUtil.execute(dbName, "EVALSHA reap", key, new JedisUtil.JedisAction<Long>() {
+				@Override
+				public Long execute(Jedis jedis) {
+					long count = 0;
+					List<String> time = jedis.time();
+					long now = Long.parseLong(time.get(0)) * 1000 + Long.parseLong(time.get(1)) / 1000;
+					Set<String> expiredSet = jedis.zrangeByScore(leaseKey, 0, now, 0, 1000);
+					for (String expired : expiredSet)
+						count += Math.max(0, reapScript(jedis, expired, false));
+					return count;
+				}
+			});
+		} catch (Exception e) {
+			LogUtil.error(e, "可靠队列回收失败:" + key);
+		}
+		return null;
+	}
+
+	private long reapScript(Jedis jedis, String expired, boolean force) {
+		List<String> keyList = Arrays.asList(leaseKey, tag + ":processing:" + expired, key);
+		return (Long) reapLua.eval(jedis, keyList, Arrays.asList(expired, force ? "1" : "0"));
+	}
+
+	/**
+	 * 启动后台回收任务
+	 *
+	 * @param intervalMillis-回收间隔(毫秒)
+	 */
+	public synchronized void startReaper(long intervalMillis) {
+		if (reapFuture != null)
+			return;
+		reapFuture = getReaper().scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				Long count = reap();
+				if (count != null && count > 0)
+					LogUtil.info("可靠队列回收超时元素:" + key + "，数量" + count);
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 停止后台回收任务，处理中的元素保留，等待确认或由其他进程回收
+	 */
+	public synchronized void close() {
+		if (reapFuture != null)
+			reapFuture.cancel(false);
+		reapFuture = null;
+	}
+
+	/**
+	 * 处理中列表的长度
+	 */
+	public Long getProcessingSize() {
+		try {
+			return JedisUtil.execute(dbName, "LLEN", key, new JedisUtil.JedisAction<Long>() {
+				@Override
+				public Long execute(Jedis jedis) {
+					return jedis.llen(processingKey);
+				}
+			});
+		} catch (Exception e) {
+			LogUtil.error(e, "可靠队列处理中长度查询失败:" + key);
+		}
+		return null;
+	}
+
+	private static synchronized ScheduledExecutorService getReaper() {
+		if (reaper == null) {
+			reaper = Executors.newSingleThreadScheduledExecutor(JdbcUtil.getThreadFactory("jedis-queue-reaper-"));
+		}
+		return reaper;
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * 基于游标的SCAN遍历器，每页单独借用连接，遍历期间不占用连接也不阻塞服务端
+ *
+ * @class JedisScanIterator
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+
+abstract class JedisScanIterator<T> implements Iterator<T> {
+
+	private final ScanParams params;
+	private String cursor = ScanParams.SCAN_POINTER_START;
+	private boolean finished = false;
+	private List<T> page = Collections.emptyList();
+	private int index = 0;
+
+	/**
+	 * @param pattern-匹配表达式，为null时不过滤
+	 * @param count-每页建议数量
+	 */
+	JedisScanIterator(String pattern, int count) {
+		this.params = new ScanParams().count(count);
+		if (pattern != null)
+			params.match(pattern);
+	}
+
+	/**
+	 * 从指定游标扫描一页
+	 */
+	abstract ScanResult<T> scan(String cursor, ScanParams params);
+
+	/**
+	 * 对一页结果做客户端过滤，默认不过滤
+	 */
+	List<T> filter(List<T> list) {
+		return list;
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (index >= page.size()) {
+			if (finished)
+				return false;
+			ScanResult<T> result = scan(cursor, params);
+			cursor = result.getStringCursor();
+			finished = ScanParams.SCAN_POINTER_START.equals(cursor);
+			page = filter(result.getResult());
+			index = 0;
+		}
+		return true;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		return page.get(index++);
+	}
+}
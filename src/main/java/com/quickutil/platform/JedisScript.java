@@ -0,0 +1,63 @@
+/**
+ * Lua脚本，使用EVALSHA执行，服务端未缓存该脚本时SCRIPT LOAD后重试
+ *
+ * @class JedisScript
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+public class JedisScript {
+
+	private final String script;
+	private final String sha1;
+
+	/**
+	 * @param script-Lua脚本
+	 */
+	public JedisScript(String script) {
+		this.script = script;
+		this.sha1 = CryptoUtil.sha1Encode(script.getBytes(StandardCharsets.UTF_8));
+	}
+
+	public String getScript() {
+		return script;
+	}
+
+	public String getSha1() {
+		return sha1;
+	}
+
+	/**
+	 * 执行脚本
+	 *
+	 * @param jedis-连接
+	 * @param keyList-KEYS参数
+	 * @param argList-ARGV参数
+	 * @return
+	 */
+	public Object eval(Jedis jedis, List<String> keyList, List<String> argList) {
+		try {
+			return jedis.evalsha(sha1, keyList, argList);
+		} catch (JedisDataException e) {
+			if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT"))
+				throw e;
+			load(jedis);
+			return jedis.evalsha(sha1, keyList, argList);
+		}
+	}
+
+	/**
+	 * 在连接对应的服务端加载脚本，pipeline中使用evalsha前调用
+	 *
+	 * @param jedis-连接
+	 */
+	public void load(Jedis jedis) {
+		jedis.scriptLoad(script);
+	}
+}
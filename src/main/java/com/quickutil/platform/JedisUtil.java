@@ -6,23 +6,71 @@
  */
 package com.quickutil.platform;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Time;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Properties;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.Tuple;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
 
 public class JedisUtil {
 
 	private static Map<String, JedisPool> JedisPoolMap = new HashMap<String, JedisPool>();
 	private static final String SPLIT = "::::";
+	private static int batchChunkSize = 1000;
+	private static final int scanCount = 1000;
+	private static Map<String, JedisNearCache> nearCacheMap = new ConcurrentHashMap<String, JedisNearCache>();
+	private static Set<String> nearCachePublishSet = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private static Map<String, ConsistentHash<String>> shardHashMap = new ConcurrentHashMap<String, ConsistentHash<String>>();
+	private static int shardThreads = Runtime.getRuntime().availableProcessors() * 4;
+	private static ExecutorService shardExecutor;
+	private static Map<String, JedisClusterRouter> clusterMap = new ConcurrentHashMap<String, JedisClusterRouter>();
+	private static Map<String, JedisMetrics> metricsMap = new ConcurrentHashMap<String, JedisMetrics>();
+
+	/**
+	 * 在连接上执行的操作，单机、分片组和集群模式下由execute选择连接
+	 */
+	interface JedisAction<T> {
+		T execute(Jedis jedis);
+	}
 
 	/**
 	 * 增加JedisPool，默认pool配置
@@ -51,6 +99,15 @@ public class JedisUtil {
 				}
 			}
 			for (String key : keyList) {
+				// 分片组，成员以逗号分隔
+				if (jedis.getProperty(key + ".shards") != null)
+					continue;
+				// 集群，种子节点host:port以逗号分隔
+				if (jedis.getProperty(key + ".cluster") != null) {
+					int timeout = Integer.parseInt(jedis.getProperty(key + ".timeout"));
+					addJedisCluster(key, jedis.getProperty(key + ".cluster"), timeout, jedis.getProperty(key + ".password"), pool);
+					continue;
+				}
 				String host = jedis.getProperty(key + ".host");
 				int port = Integer.parseInt(jedis.getProperty(key + ".port"));
 				int timeout = Integer.parseInt(jedis.getProperty(key + ".timeout"));
@@ -58,9 +115,13 @@ public class JedisUtil {
 				int database = Integer.parseInt(jedis.getProperty(key + ".database"));
 				JedisPoolMap.put(key, getJedisPool(host, port, timeout, password, database, pool));
 			}
+			for (String key : keyList) {
+				if (jedis.getProperty(key + ".shards") != null)
+					addJedisShardGroup(key, Arrays.asList(jedis.getProperty(key + ".shards").trim().split("\\s*,\\s*")));
+			}
 			return true;
 		} catch (Exception e) {
-			e.printStackTrace();
+			LogUtil.error(e, "添加redis连接池失败");
 		}
 		return false;
 	}
@@ -95,7 +156,34 @@ public class JedisUtil {
 	}
 
 	/**
-	 * 获取生成的JedisPool
+	 * 增加Redis Cluster，默认pool配置，之后可将集群名称作为数据库名称使用
+	 * 
+	 * @param dbName-数据库名称
+	 * @param nodes-种子节点，host:port以逗号分隔
+	 * @param timeout-超时时间
+	 * @param password-密码
+	 */
+	public static void addJedisCluster(String dbName, String nodes, int timeout, String password) {
+		addJedisCluster(dbName, nodes, timeout, password, null);
+	}
+
+	/**
+	 * 增加Redis Cluster，指定各节点的pool配置，key按slot路由到所在主节点，MOVED/ASK重定向时自动重试
+	 * 
+	 * @param dbName-数据库名称
+	 * @param nodes-种子节点，host:port以逗号分隔
+	 * @param timeout-超时时间
+	 * @param password-密码
+	 * @param pool-pool配置
+	 */
+	public static void addJedisCluster(String dbName, String nodes, int timeout, String password, Properties pool) {
+		JedisClusterRouter old = clusterMap.put(dbName, new JedisClusterRouter(nodes, timeout, password, getJedisPoolConfig(pool)));
+		if (old != null)
+			old.close();
+	}
+
+	/**
+	 * 获取生成的JedisPool，分片组和集群返回null
 	 * 
 	 * @param dbName-数据库名称
 	 * @return
@@ -104,10 +192,204 @@ public class JedisUtil {
 		return JedisPoolMap.get(dbName);
 	}
 
+	/**
+	 * 增加分片组，使用一致性哈希将key映射到JedisPool，默认每个JedisPool 160个虚拟节点，之后可将分片组名称作为数据库名称使用
+	 * 
+	 * @param groupName-分片组名称
+	 * @param dbNameList-各分片的数据库名称，需已通过addJedisPool添加
+	 */
+	public static void addJedisShardGroup(String groupName, List<String> dbNameList) {
+		addJedisShardGroup(groupName, dbNameList, 160);
+	}
+
+	/**
+	 * 增加分片组，使用一致性哈希将key映射到JedisPool，key中包含{tag}时只对tag计算哈希，之后可将分片组名称作为数据库名称使用
+	 * 
+	 * @param groupName-分片组名称
+	 * @param dbNameList-各分片的数据库名称，需已通过addJedisPool添加
+	 * @param virtualNodes-每个分片的虚拟节点数
+	 */
+	public static void addJedisShardGroup(String groupName, List<String> dbNameList, int virtualNodes) {
+		shardHashMap.put(groupName, new ConsistentHash<String>(dbNameList, virtualNodes));
+	}
+
+	/**
+	 * 设置多key操作跨分片并行执行的线程数，需在首次跨分片操作前设置
+	 * 
+	 * @param threads-线程数
+	 */
+	public static void setShardThreads(int threads) {
+		shardThreads = threads;
+	}
+
+	/**
+	 * 获取key所在分片的数据库名称，集群返回所在主节点host:port，非分片组时返回自身
+	 * 
+	 * @param dbName-数据库或分片组名称
+	 * @param key-key名
+	 * @return
+	 */
+	public static String getShardName(String dbName, String key) {
+		JedisClusterRouter router = clusterMap.get(dbName);
+		if (router != null)
+			return router.getNodeName(JedisClusterRouter.getSlot(key));
+		ConsistentHash<String> hash = shardHashMap.get(dbName);
+		return hash == null ? dbName : hash.get(key);
+	}
+
+	/**
+	 * 获取分片组的全部数据库名称，非分片组时返回自身
+	 * 
+	 * @param dbName-数据库或分片组名称
+	 * @return
+	 */
+	public static List<String> getShardNames(String dbName) {
+		ConsistentHash<String> hash = shardHashMap.get(dbName);
+		return hash == null ? Collections.singletonList(dbName) : hash.getNodes();
+	}
+
+	/**
+	 * 在key所在的节点上执行，集群模式下处理重定向，连接使用后归还，开启访问统计时按命令名称记录
+	 */
+	static <T> T execute(String dbName, String command, String key, JedisAction<T> action) {
+		JedisMetrics metrics = metricsMap.get(dbName);
+		long start = System.nanoTime();
+		Exception error = null;
+		try {
+			JedisClusterRouter router = clusterMap.get(dbName);
+			if (router != null)
+				return router.execute(JedisClusterRouter.getSlot(key), action, metrics);
+			return execute(JedisPoolMap.get(getShardName(dbName, key)), action, metrics);
+		} catch (RuntimeException e) {
+			error = e;
+			throw e;
+		} finally {
+			recordMetrics(dbName, command, key, start, error);
+		}
+	}
+
+	private static <T> T execute(JedisPool pool, JedisAction<T> action, JedisMetrics metrics) {
+		Jedis jedis = JedisMetrics.getResource(metrics, pool);
+		try {
+			return action.execute(jedis);
+		} finally {
+			jedis.close();
+		}
+	}
+
+	/**
+	 * 在指定节点上执行，用于遍历全部节点的命令，开启访问统计时按命令名称记录
+	 */
+	private static <T> T executeOnNode(String dbName, String command, JedisPool pool, JedisAction<T> action) {
+		long start = System.nanoTime();
+		Exception error = null;
+		try {
+			return execute(pool, action, metricsMap.get(dbName));
+		} catch (RuntimeException e) {
+			error = e;
+			throw e;
+		} finally {
+			recordMetrics(dbName, command, null, start, error);
+		}
+	}
+
+	private static void recordMetrics(String dbName, String command, String key, long start, Exception error) {
+		JedisMetrics metrics = metricsMap.get(dbName);
+		if (metrics != null)
+			metrics.record(command, key, System.nanoTime() - start, error);
+	}
+
+	/**
+	 * 获取分片名称对应的连接池，集群的分片名称为节点host:port
+	 */
+	private static JedisPool getShardPool(String dbName, String shardName) {
+		JedisClusterRouter router = clusterMap.get(dbName);
+		return router == null ? JedisPoolMap.get(shardName) : router.getNodePool(shardName);
+	}
+
+	/**
+	 * 获取数据库的全部节点连接池，分片组返回各分片，集群返回各主节点
+	 */
+	private static List<JedisPool> getNodePools(String dbName) {
+		JedisClusterRouter router = clusterMap.get(dbName);
+		if (router != null)
+			return router.getMasterPools();
+		List<JedisPool> poolList = new ArrayList<JedisPool>();
+		for (String shardName : getShardNames(dbName))
+			poolList.add(JedisPoolMap.get(shardName));
+		return poolList;
+	}
+
+	/**
+	 * 按分片拆分key的下标，bySlot为true时集群按slot拆分，用于不能跨slot的脚本
+	 */
+	private static Map<String, List<Integer>> splitByShard(String dbName, List<String> keyList, boolean bySlot) {
+		JedisClusterRouter router = clusterMap.get(dbName);
+		Map<String, List<Integer>> shardMap = new LinkedHashMap<String, List<Integer>>();
+		for (int i = 0; i < keyList.size(); i++) {
+			String shardName = router != null && bySlot ? String.valueOf(JedisClusterRouter.getSlot(keyList.get(i))) : getShardName(dbName, keyList.get(i));
+			List<Integer> indexList = shardMap.get(shardName);
+			if (indexList == null) {
+				indexList = new ArrayList<Integer>();
+				shardMap.put(shardName, indexList);
+			}
+			indexList.add(i);
+		}
+		return shardMap;
+	}
+
+	private static <T> List<T> pick(List<T> list, List<Integer> indexList) {
+		List<T> result = new ArrayList<T>(indexList.size());
+		for (int index : indexList)
+			result.add(list.get(index));
+		return result;
+	}
+
+	/**
+	 * 在各分片上并行执行，只有一个分片时在当前线程执行，任一分片失败时抛出异常
+	 */
+	private static <T> Map<String, T> executeShards(Map<String, Callable<T>> callableMap) throws Exception {
+		Map<String, T> resultMap = new HashMap<String, T>();
+		if (callableMap.size() == 1) {
+			Map.Entry<String, Callable<T>> entry = callableMap.entrySet().iterator().next();
+			resultMap.put(entry.getKey(), entry.getValue().call());
+			return resultMap;
+		}
+		Map<String, Future<T>> futureMap = new LinkedHashMap<String, Future<T>>();
+		for (Map.Entry<String, Callable<T>> entry : callableMap.entrySet())
+			futureMap.put(entry.getKey(), getShardExecutor().submit(entry.getValue()));
+		try {
+			for (Map.Entry<String, Future<T>> entry : futureMap.entrySet())
+				resultMap.put(entry.getKey(), entry.getValue().get());
+			return resultMap;
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		} finally {
+			for (Future<T> future : futureMap.values())
+				future.cancel(true);
+		}
+	}
+
+	/**
+	 * 跨分片操作使用的有界线程池，队列满时由调用线程执行
+	 */
+	private static synchronized ExecutorService getShardExecutor() {
+		if (shardExecutor == null) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(shardThreads, shardThreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(shardThreads * 16), JdbcUtil.getThreadFactory("jedis-shard-"), new ThreadPoolExecutor.CallerRunsPolicy());
+			executor.allowCoreThreadTimeOut(true);
+			shardExecutor = executor;
+		}
+		return shardExecutor;
+	}
+
 	private static JedisPool getJedisPool(String host, int port, int timeout, String password, int database, Properties pool) {
+		return new JedisPool(getJedisPoolConfig(pool), host, port, timeout, password, database);
+	}
+
+	private static JedisPoolConfig getJedisPoolConfig(Properties pool) {
 		JedisPoolConfig config = new JedisPoolConfig();
 		if (pool == null)
-			return new JedisPool(config, host, port, timeout, password, database);
+			return config;
 		//
 		if (pool.getProperty("BlockWhenExhausted") != null)
 			config.setBlockWhenExhausted(Boolean.parseBoolean(pool.getProperty("BlockWhenExhausted")));
@@ -145,37 +427,472 @@ public class JedisUtil {
 			config.setTestOnReturn(Boolean.parseBoolean(pool.getProperty("TestOnReturn")));
 		if (pool.getProperty("TestWhileIdle") != null)
 			config.setTestWhileIdle(Boolean.parseBoolean(pool.getProperty("TestWhileIdle")));
-		if (pool.getProperty("AcquireIncrement") != null)
+		if (pool.getProperty("TimeBetweenEvictionRunsMillis") != null)
 			config.setTimeBetweenEvictionRunsMillis(Long.parseLong(pool.getProperty("TimeBetweenEvictionRunsMillis")));
 		//
-		return new JedisPool(config, host, port, timeout, password, database);
+		return config;
+	}
+
+	/**
+	 * 开启访问统计，按命令名称记录耗时、超时和错误数，记录借用连接等待时间、连接池耗尽次数和慢命令，
+	 * 分片组和集群按名称统一统计
+	 * 
+	 * @param dbName-数据库名称
+	 * @param slowCommandMillis-慢命令阈值(毫秒)，耗时包含借用连接
+	 */
+	public static void enableMetrics(String dbName, long slowCommandMillis) {
+		metricsMap.put(dbName, new JedisMetrics(slowCommandMillis));
+	}
+
+	/**
+	 * 关闭访问统计
+	 * 
+	 * @param dbName-数据库名称
+	 */
+	public static void disableMetrics(String dbName) {
+		metricsMap.remove(dbName);
+	}
+
+	/**
+	 * 获取访问统计和各节点连接池状态，耗时单位为毫秒
+	 * 
+	 * @param dbName-数据库名称
+	 * @return
+	 */
+	public static Map<String, Object> getMetrics(String dbName) {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		Map<String, Object> poolMap = new LinkedHashMap<String, Object>();
+		JedisClusterRouter router = clusterMap.get(dbName);
+		for (String shardName : router != null ? router.getMasterNodes() : getShardNames(dbName)) {
+			JedisPool pool = getShardPool(dbName, shardName);
+			if (pool != null)
+				poolMap.put(shardName, getPoolStatus(pool));
+		}
+		map.put("pool", poolMap);
+		JedisMetrics metrics = metricsMap.get(dbName);
+		if (metrics != null)
+			map.putAll(metrics.toMap());
+		return map;
+	}
+
+	/**
+	 * 获取全部数据库、分片组和集群的访问统计和连接池状态
+	 * 
+	 * @return
+	 */
+	public static Map<String, Object> getMetrics() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		Set<String> dbNameSet = new LinkedHashSet<String>(JedisPoolMap.keySet());
+		dbNameSet.addAll(shardHashMap.keySet());
+		dbNameSet.addAll(clusterMap.keySet());
+		for (String dbName : dbNameSet)
+			map.put(dbName, getMetrics(dbName));
+		return map;
+	}
+
+	private static Map<String, Object> getPoolStatus(JedisPool pool) {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("active", pool.getNumActive());
+		map.put("idle", pool.getNumIdle());
+		map.put("waiters", pool.getNumWaiters());
+		map.put("meanBorrowWaitMillis", pool.getMeanBorrowWaitTimeMillis());
+		map.put("maxBorrowWaitMillis", pool.getMaxBorrowWaitTimeMillis());
+		return map;
+	}
+
+	/**
+	 * 开启近端缓存，getString、getHash、getHashAll的结果缓存在进程内，本进程和其他开启失效通知的进程写入时通过pub/sub失效
+	 * 
+	 * @param dbName-数据库名称
+	 * @param maxSize-缓存的key数量上限
+	 * @param ttlMillis-缓存有效期(毫秒)，失效消息丢失时的最长不一致时间
+	 */
+	public static void enableNearCache(String dbName, int maxSize, long ttlMillis) {
+		JedisNearCache old = nearCacheMap.put(dbName, new JedisNearCache(dbName, getNearCachePool(dbName), maxSize, ttlMillis));
+		if (old != null)
+			old.close();
+	}
+
+	/**
+	 * 只开启写入时的失效通知，用于本身不缓存但需要让其他进程的近端缓存失效的写入方
+	 * 
+	 * @param dbName-数据库名称
+	 */
+	public static void enableNearCacheInvalidation(String dbName) {
+		nearCachePublishSet.add(dbName);
+	}
+
+	/**
+	 * 关闭近端缓存和失效通知
+	 * 
+	 * @param dbName-数据库名称
+	 */
+	public static void disableNearCache(String dbName) {
+		nearCachePublishSet.remove(dbName);
+		JedisNearCache nearCache = nearCacheMap.remove(dbName);
+		if (nearCache != null)
+			nearCache.close();
 	}
 
 	/**
-	 * 查询keys
+	 * 写入成功后使本地近端缓存失效，并向失效频道广播，分片组的失效频道统一使用第一个分片，集群的PUBLISH会广播到全部节点
+	 */
+	static void invalidateNearCache(String dbName, Jedis jedis, Collection<String> keys) {
+		JedisNearCache nearCache = nearCacheMap.get(dbName);
+		if (nearCache != null)
+			nearCache.invalidate(keys);
+		if ((nearCache == null && !nearCachePublishSet.contains(dbName)) || keys.isEmpty())
+			return;
+		String message = String.join(JedisNearCache.SEPARATOR, keys);
+		if (!shardHashMap.containsKey(dbName)) {
+			jedis.publish(JedisNearCache.CHANNEL, message);
+			return;
+		}
+		Jedis channelJedis = getNearCachePool(dbName).getResource();
+		try {
+			channelJedis.publish(JedisNearCache.CHANNEL, message);
+		} finally {
+			channelJedis.close();
+		}
+	}
+
+	private static JedisPool getNearCachePool(String dbName) {
+		return getNodePools(dbName).get(0);
+	}
+
+	/**
+	 * 设置批量操作每次pipeline发送的最大操作数，超出时分段发送
+	 * 
+	 * @param chunkSize-操作数
+	 */
+	public static void setBatchChunkSize(int chunkSize) {
+		batchChunkSize = Math.max(1, chunkSize);
+	}
+
+	/**
+	 * 批量执行操作，在同一连接上通过pipeline发送，集群按主节点拆分，被重定向的操作单独重试
+	 * 
+	 * @param dbName-数据库名称
+	 * @param batch-批量操作
+	 * @return 按操作顺序的结果，单个操作失败时对应位置为null
+	 */
+	public static List<Object> executeBatch(final String dbName, JedisBatch batch) {
+		final List<JedisBatch.Operation> operationList = batch.operationList;
+		List<String> keyList = new ArrayList<String>(operationList.size());
+		for (JedisBatch.Operation operation : operationList)
+			keyList.add(operation.key);
+		try {
+			Map<String, List<Integer>> shardMap = splitByShard(dbName, keyList, false);
+			Map<String, Callable<List<Object>>> callableMap = new LinkedHashMap<String, Callable<List<Object>>>();
+			for (final Map.Entry<String, List<Integer>> entry : shardMap.entrySet()) {
+				callableMap.put(entry.getKey(), new Callable<List<Object>>() {
+					@Override
+					public List<Object> call() throws Exception {
+						JedisMetrics metrics = metricsMap.get(dbName);
+						long start = System.nanoTime();
+						Exception error = null;
+						try {
+							return execute(getShardPool(dbName, entry.getKey()), new JedisAction<List<Object>>() {
+								@Override
+								public List<Object> execute(Jedis jedis) {
+									return executeBatch(dbName, jedis, pick(operationList, entry.getValue()));
+								}
+							}, metrics);
+						} catch (RuntimeException e) {
+							error = e;
+							throw e;
+						} finally {
+							recordMetrics(dbName, "PIPELINE", entry.getKey(), start, error);
+						}
+					}
+				});
+			}
+			Map<String, List<Object>> resultMap = executeShards(callableMap);
+			Object[] results = new Object[operationList.size()];
+			for (Map.Entry<String, List<Integer>> entry : shardMap.entrySet()) {
+				List<Object> shardResult = resultMap.get(entry.getKey());
+				for (int i = 0; i < entry.getValue().size(); i++)
+					results[entry.getValue().get(i)] = shardResult.get(i);
+			}
+			for (int i = 0; i < results.length; i++) {
+				if (results[i] instanceof JedisRedirectionException)
+					results[i] = executeRedirected(dbName, operationList.get(i));
+			}
+			return new ArrayList<Object>(Arrays.asList(results));
+		} catch (Exception e) {
+			LogUtil.error(e, "redis批量操作失败:" + dbName);
+		}
+		return null;
+	}
+
+	private static List<Object> executeBatch(String dbName, Jedis jedis, List<JedisBatch.Operation> operationList) {
+		List<Object> resultList = new ArrayList<Object>(operationList.size());
+		for (int start = 0; start < operationList.size(); start += batchChunkSize) {
+			Pipeline pipeline = jedis.pipelined();
+			List<Response<?>> responseList = new ArrayList<Response<?>>();
+			Set<String> writeKeySet = new LinkedHashSet<String>();
+			for (JedisBatch.Operation operation : operationList.subList(start, Math.min(start + batchChunkSize, operationList.size()))) {
+				responseList.add(operation.apply(pipeline));
+				if (operation.write)
+					writeKeySet.add(operation.key);
+			}
+			pipeline.sync();
+			invalidateNearCache(dbName, jedis, writeKeySet);
+			for (Response<?> response : responseList) {
+				try {
+					resultList.add(response.get());
+				} catch (JedisRedirectionException e) {
+					resultList.add(e);
+				} catch (JedisDataException e) {
+					LogUtil.error(e, "redis批量操作中的命令失败:" + dbName);
+					resultList.add(null);
+				}
+			}
+		}
+		return resultList;
+	}
+
+	/**
+	 * 集群迁移slot期间被MOVED/ASK的操作，经路由单独重试
+	 */
+	private static Object executeRedirected(String dbName, final JedisBatch.Operation operation) {
+		try {
+			return execute(dbName, "PIPELINE", operation.key, new JedisAction<Object>() {
+				@Override
+				public Object execute(Jedis jedis) {
+					Object result = executeBatch(dbName, jedis, Collections.singletonList(operation)).get(0);
+					if (result instanceof JedisRedirectionException)
+						throw (JedisRedirectionException) result;
+					return result;
+				}
+			});
+		} catch (Exception e) {
+			LogUtil.error(e, "redis重定向操作失败:" + dbName + "，key:" + operation.key);
+		}
+		return null;
+	}
+
+	/**
+	 * 执行Lua脚本，使用EVALSHA发送，分片组和集群按第一个KEYS参数路由，集群下全部KEYS需在同一slot
+	 * 
+	 * @param dbName-数据库名称
+	 * @param script-脚本
+	 * @param keyList-KEYS参数
+	 * @param argList-ARGV参数
+	 * @return
+	 */
+	public static Object evalScript(String dbName, final JedisScript script, final List<String> keyList, final List<String> argList) {
+		try {
+			return execute(dbName, "EVALSHA " + script.getSha1(), keyList.isEmpty() ? "" : keyList.get(0), new JedisAction<Object>() {
+				@Override
+				public Object execute(Jedis jedis) {
+					return script.eval(jedis, keyList, argList);
+				}
+			});
+		} catch (Exception e) {
+			LogUtil.error(e, "redis执行脚本失败:" + dbName);
+		}
+		return null;
+	}
+
+	/**
+	 * 查询keys，使用SCAN分页遍历，不阻塞服务端
 	 * 
 	 * @param dbName-数据库名称
 	 * @param pattern-表达式
 	 * @return
 	 */
 	public static List<String> getKeys(String dbName, String pattern) {
-		JedisPool pool = JedisPoolMap.get(dbName);
-		Jedis jedis = pool.getResource();
-		List<String> keyList = new ArrayList<String>();
-		if (pattern == null)
-			pattern = "*";
+		Set<String> keySet = new LinkedHashSet<String>();
 		try {
-			Iterator<String> iterator = jedis.keys(pattern).iterator();
+			Iterator<String> iterator = scanKeys(dbName, pattern, scanCount);
 			while (iterator.hasNext()) {
-				keyList.add(iterator.next().toString());
+				keySet.add(iterator.next());
+			}
+		} catch (Exception e) {
+			LogUtil.error(e, "redis查询keys失败:" + dbName + "，pattern:" + pattern);
+		}
+		return new ArrayList<String>(keySet);
+	}
+
+	/**
+	 * 遍历keys，每页单独借用连接，遍历期间有增删时同一key可能返回多次
+	 * 
+	 * @param dbName-数据库名称
+	 * @param pattern-表达式，为null时匹配全部
+	 * @param count-每页建议数量
+	 * @return
+	 */
+	public static Iterator<String> scanKeys(String dbName, String pattern, int count) {
+		return scanKeys(dbName, pattern, count, null);
+	}
+
+	/**
+	 * 遍历指定类型的keys，类型在客户端按页通过pipeline执行TYPE过滤
+	 * 
+	 * @param dbName-数据库名称
+	 * @param pattern-表达式，为null时匹配全部
+	 * @param count-每页建议数量
+	 * @param type-类型，如string、hash、list、set、zset，为null时不过滤
+	 * @return
+	 */
+	public static Iterator<String> scanKeys(String dbName, String pattern, int count, String type) {
+		List<JedisPool> poolList = getNodePools(dbName);
+		if (poolList.size() == 1)
+			return scanPoolKeys(dbName, poolList.get(0), pattern, count, type);
+		final List<Iterator<String>> iteratorList = new ArrayList<Iterator<String>>();
+		for (JedisPool pool : poolList)
+			iteratorList.add(scanPoolKeys(dbName, pool, pattern, count, type));
+		return new Iterator<String>() {
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				while (index < iteratorList.size()) {
+					if (iteratorList.get(index).hasNext())
+						return true;
+					index++;
+				}
+				return false;
+			}
+
+			@Override
+			public String next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				return iteratorList.get(index).next();
+			}
+		};
+	}
+
+	private static Iterator<String> scanPoolKeys(final String dbName, final JedisPool pool, String pattern, int count, final String type) {
+		return new JedisScanIterator<String>(pattern, count) {
+			@Override
+			ScanResult<String> scan(final String cursor, final ScanParams params) {
+				return executeOnNode(dbName, "SCAN", pool, new JedisAction<ScanResult<String>>() {
+					@Override
+					public ScanResult<String> execute(Jedis jedis) {
+						return jedis.scan(cursor, params);
+					}
+				});
+			}
+
+			@Override
+			List<String> filter(final List<String> list) {
+				if (type == null || list.isEmpty())
+					return list;
+				return executeOnNode(dbName, "PIPELINE TYPE", pool, new JedisAction<List<String>>() {
+					@Override
+					public List<String> execute(Jedis jedis) {
+						Pipeline pipeline = jedis.pipelined();
+						List<Response<String>> responseList = new ArrayList<Response<String>>(list.size());
+						for (String key : list)
+							responseList.add(pipeline.type(key));
+						pipeline.sync();
+						List<String> keyList = new ArrayList<String>();
+						for (int i = 0; i < list.size(); i++) {
+							if (type.equals(responseList.get(i).get()))
+								keyList.add(list.get(i));
+						}
+						return keyList;
+					}
+				});
+			}
+		};
+	}
+
+	/**
+	 * 并行遍历多个数据库的keys，分片组和集群展开为各节点并行遍历
+	 * 
+	 * @param dbNameList-数据库名称
+	 * @param pattern-表达式，为null时匹配全部
+	 * @param count-每页建议数量
+	 * @return
+	 */
+	public static Stream<String> streamKeys(List<String> dbNameList, final String pattern, final int count) {
+		// 同一节点只遍历一次，访问统计记入第一个包含该节点的数据库
+		Map<JedisPool, String> poolMap = new LinkedHashMap<JedisPool, String>();
+		for (String dbName : dbNameList) {
+			for (JedisPool pool : getNodePools(dbName)) {
+				if (!poolMap.containsKey(pool))
+					poolMap.put(pool, dbName);
+			}
+		}
+		return poolMap.entrySet().parallelStream().flatMap(new Function<Map.Entry<JedisPool, String>, Stream<String>>() {
+			@Override
+			public Stream<String> apply(Map.Entry<JedisPool, String> entry) {
+				return StreamSupport.stream(Spliterators.spliteratorUnknownSize(scanPoolKeys(entry.getValue(), entry.getKey(), pattern, count, null), Spliterator.NONNULL), false);
+			}
+		});
+	}
+
+	/**
+	 * 遍历哈希表，使用HSCAN分页
+	 * 
+	 * @param dbName-数据库名称
+	 * @param key-key名
+	 * @param pattern-field表达式，为null时匹配全部
+	 * @param count-每页建议数量
+	 * @return
+	 */
+	public static Iterator<Map.Entry<String, String>> scanHash(final String dbName, final String key, String pattern, int count) {
+		return new JedisScanIterator<Map.Entry<String, String>>(pattern, count) {
+			@Override
+			ScanResult<Map.Entry<String, String>> scan(final String cursor, final ScanParams params) {
+				return execute(dbName, "HSCAN", key, new JedisAction<ScanResult<Map.Entry<String, String>>>() {
+					@Override
+					public ScanResult<Map.Entry<String, String>> execute(Jedis jedis) {
+						return jedis.hscan(key, cursor, params);
+					}
+				});
+			}
+		};
+	}
+
+	/**
+	 * 遍历集合，使用SSCAN分页
+	 * 
+	 * @param dbName-数据库名称
+	 * @param key-key名
+	 * @param pattern-成员表达式，为null时匹配全部
+	 * @param count-每页建议数量
+	 * @return
+	 */
+	public static Iterator<String> scanSet(final String dbName, final String key, String pattern, int count) {
+		return new JedisScanIterator<String>(pattern, count) {
+			@Override
+			ScanResult<String> scan(final String cursor, final ScanParams params) {
+				return execute(dbName, "SSCAN", key, new JedisAction<ScanResult<String>>() {
+					@Override
+					public ScanResult<String> execute(Jedis jedis) {
+						return jedis.sscan(key, cursor, params);
+					}
+				});
+			}
+		};
+	}
+
+	/**
+	 * 遍历有序集合，使用ZSCAN分页
+	 * 
+	 * @param dbName-数据库名称
+	 * @param key-key名
+	 * @param pattern-成员表达式，为null时匹配全部
+	 * @param count-每页建议数量
+	 * @return
+	 */
+	public static Iterator<Tuple> scanSortedSet(final String dbName, final String key, String pattern, int count) {
+		return new JedisScanIterator<Tuple>(pattern, count) {
+			@Override
+			ScanResult<Tuple> scan(final String cursor, final ScanParams params) {
+				return execute(dbName, "ZSCAN", key, new JedisAction<ScanResult<Tuple>>() {
+					@Override
+					public ScanResult<Tuple> execute(Jedis jedis) {
+						return jedis.zscan(key, cursor, params);
+					}
+				});
 			}
-		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			if (jedis != null)
-				jedis.close();
-		}
-		return keyList;
+		};
 	}
 
 	/**
@@ -184,29 +901,38 @@ public class JedisUtil {
 	 * @param dbName-数据库名称
 	 * @param key-key名
 	 */
-	public static Long deleteKey(String dbName, String key) {
-		JedisPool pool = JedisPoolMap.get(dbName);
-		Jedis jedis = pool.getResource();
+	public static Long deleteKey(final String dbName, final String key) {
 		try {
-			return jedis.del(key);
+			return execute(dbName, "DEL", key, new JedisAction<Long>() {
+				@Override
+				public Long execute(Jedis jedis) {
+					Long result = jedis.del(key);
+					invalidateNearCache(dbName, jedis, Collections.singletonList(key));
+					return result;
+				}
+			});
 		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			if (jedis != null)
-				jedis.close();
+			LogUtil.error(e, "redis删除key失败:" + dbName + "，key:" + key);
 		}
 		return null;
 	}
 
 	/**
-	 * 清空数据
+	 * 清空数据，分片组和集群清空全部节点
 	 * 
 	 * @param dbName-数据库名称
 	 */
 	public static String flushData(String dbName) {
-		JedisPool pool = JedisPoolMap.get(dbName);
-		Jedis jedis = pool.getResource();
-		return jedis.flushDB();
+		String result = null;
+		for (JedisPool pool : getNodePools(dbName)) {
+			result = executeOnNode(dbName, "FLUSHDB", pool, new JedisAction<String>() {
+				@Override
+				public String execute(Jedis jedis) {
+					return jedis.flushDB();
+				}
+			});
+		}
+		return result;
 	}
 
 	/**
@@ -216,16 +942,18 @@ public class JedisUtil {
 	 * @param key-key名
 	 * @param seconds-有效时间
 	 */
-	public static Long setExpire(String dbName, String key, int seconds) {
-		JedisPool pool = JedisPoolMap.get(dbName);
-		Jedis jedis = pool.getResource();
+	public static Long setExpire(final String dbName, final String key, final int seconds) {
 		try {
-			return jedis.expire(key, seconds);
+			return execute(dbName, "EXPIRE", key, new JedisAction<Long>() {
+				@Override
+				public Long execute(Jedis jedis) {
+					Long result = jedis.expire(key, seconds);
+					invalidateNearCache(dbName, jedis, Collections.singletonList(key));
+					return result;
+				}
+			});
 		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			if (jedis != null)
-				jedis.close();
+			LogUtil.error(e, "redis设置超时失败:" + dbName + "，key:" + key);
 		}
 		return null;
 	}
@@ -237,16 +965,18 @@ public class JedisUtil {
 	 * @param key-key名
 	 * @param value-数据内容
 	 */
-	public static String setString(String dbName, String key, String value) {
-		JedisPool pool = JedisPoolMap.get(dbName);
-		Jedis jedis = pool.getResource();
+	public static String setString(final String dbName, final String key, final String value) {
 		try {
-			return jedis.set(key, value);
+			return execute(dbName, "SET", key, new JedisAction<String>() {
+				@Override
+				public String execute(Jedis jedis) {
+					String result = jedis.set(key, value);
+					invalidateNearCache(dbName, jedis, Collections.singletonList(key));
+					return result;
+				}
+			});
 		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			if (jedis != null)
-				jedis.close();
+			LogUtil.error(e, "redis存储字符串失败:" + dbName + "，key:" + key);
 		}
 		return null;
 	}
@@ -258,16 +988,27 @@ public class JedisUtil {
 	 * @param key-key名
 	 * @return
 	 */
-	public static String getString(String dbName, String key) {
-		JedisPool pool = JedisPoolMap.get(dbName);
-		Jedis jedis = pool.getResource();
+	public static String getString(final String dbName, final String key) {
+		JedisNearCache nearCache = nearCacheMap.get(dbName);
+		long generation = 0;
+		if (nearCache != null) {
+			Object value = nearCache.get(key, "get");
+			if (value != null)
+				return value == JedisNearCache.NULL ? null : (String) value;
+			generation = nearCache.getGeneration();
+		}
 		try {
-			return jedis.get(key);
+			String value = execute(dbName, "GET", key, new JedisAction<String>() {
+				@Override
+				public String execute(Jedis jedis) {
+					return jedis.get(key);
+				}
+			});
+			if (nearCache != null)
+				nearCache.put(key, "get", value, generation);
+			return value;
 		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			if (jedis != null)
-				jedis.close();
+			LogUtil.error(e, "redis查询字符串失败:" + dbName + "，key:" + key);
 		}
 		return null;
 	}
@@ -279,16 +1020,16 @@ public class JedisUtil {
 	 * @param key-key名
 	 * @param list-数据内容
 	 */
-	public static Long pushQueue(String dbName, String key, List<String> list) {
-		JedisPool pool = JedisPoolMap.get(dbName);
-		Jedis jedis = pool.getResource();
+	public static Long pushQueue(final String dbName, final String key, final List<String> list) {
 		try {
-			return jedis.lpush(key, list.toArray(new String[list.size()]));
+			return execute(dbName, "LPUSH", key, new JedisAction<Long>() {
+				@Override
+				public Long execute(Jedis jedis) {
+					return jedis.lpush(key, list.toArray(new String[list.size()]));
+				}
+			});
 		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			if (jedis != null)
-				jedis.close();
+			LogUtil.error(e, "redis写入队列失败:" + dbName + "，key:" + key);
 		}
 		return null;
 	}
@@ -299,21 +1040,21 @@ public class JedisUtil {
 	 * @param dbName-数据库名称
 	 * @param key-key名
 	 */
-	public static String popQueue(String dbName, String key) {
-		JedisPool pool = JedisPoolMap.get(dbName);
-		Jedis jedis = pool.getResource();
+	public static String popQueue(final String dbName, final String key) {
 		try {
-			return jedis.rpop(key);
+			return execute(dbName, "RPOP", key, new JedisAction<String>() {
+				@Override
+				public String execute(Jedis jedis) {
+					return jedis.rpop(key);
+				}
+			});
 		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			if (jedis != null)
-				jedis.close();
+			LogUtil.error(e, "redis读取队列失败:" + dbName + "，key:" + key);
 		}
 		return null;
 	}
 
-	private static final String popQueueLua = "local list={}; for i=1,ARGV[1] do local element=redis.call('RPOP',KEYS[1]), if element then table.insert(list,tostring(element)); end; end; return list;";
+	private static final JedisScript popQueueLua = new JedisScript("local list={}; for i=1,tonumber(ARGV[1]) do local element=redis.call('RPOP',KEYS[1]); if element then table.insert(list,tostring(element)); else break; end; end; return list;");
 
 	/**
 	 * 取出队列（基于Lua）
@@ -324,17 +1065,17 @@ public class JedisUtil {
 	 * @return
 	 */
 	@SuppressWarnings("unchecked")
-	public static List<String> popQueueX(String dbName, String key, Integer count) {
-		JedisPool pool = JedisPoolMap.get(dbName);
-		Jedis jedis = pool.getResource();
+	public static List<String> popQueueX(final String dbName, final String key, final Integer count) {
 		try {
-			List<String> list = (List<String>) jedis.eval(popQueueLua, 1, key, count.toString());
-			return list;
+			return execute(dbName, "EVALSHA popQueueX", key, new JedisAction<List<String>>() {
+				@Override
+				public List<String> execute(Jedis jedis) {
+					List<String> list = (List<String>) popQueueLua.eval(jedis, Arrays.asList(key), Arrays.asList(count.toString()));
+					return list;
+				}
+			});
 		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			if (jedis != null)
-				jedis.close();
+			LogUtil.error(e, "redis读取队列失败:" + dbName + "，key:" + key);
 		}
 		return null;
 	}
@@ -346,16 +1087,16 @@ public class JedisUtil {
 	 * @param key-key名
 	 * @param list-数据内容
 	 */
-	public static Long backtoQueue(String dbName, String key, List<String> list) {
-		JedisPool pool = JedisPoolMap.get(dbName);
-		Jedis jedis = pool.getResource();
+	public static Long backtoQueue(final String dbName, final String key, final List<String> list) {
 		try {
-			return jedis.rpush(key, list.toArray(new String[list.size()]));
+			return execute(dbName, "RPUSH", key, new JedisAction<Long>() {
+				@Override
+				public Long execute(Jedis jedis) {
+					return jedis.rpush(key, list.toArray(new String[list.size()]));
+				}
+			});
 		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			if (jedis != null)
-				jedis.close();
+			LogUtil.error(e, "redis放回队列失败:" + dbName + "，key:" + key);
 		}
 		return null;
 	}
@@ -369,16 +1110,16 @@ public class JedisUtil {
 	 * @param end-结束位置
 	 * @return
 	 */
-	public static List<String> rangeQueue(String dbName, String key, long start, long end) {
-		JedisPool pool = JedisPoolMap.get(dbName);
-		Jedis jedis = pool.getResource();
+	public static List<String> rangeQueue(final String dbName, final String key, final long start, final long end) {
 		try {
-			return jedis.lrange(key, start, end);
+			return execute(dbName, "LRANGE", key, new JedisAction<List<String>>() {
+				@Override
+				public List<String> execute(Jedis jedis) {
+					return jedis.lrange(key, start, end);
+				}
+			});
 		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			if (jedis != null)
-				jedis.close();
+			LogUtil.error(e, "redis查询队列失败:" + dbName + "，key:" + key);
 		}
 		return null;
 	}
@@ -391,21 +1132,23 @@ public class JedisUtil {
 	 * @param hash-哈希表
 	 * @return
 	 */
-	public static String setHash(String dbName, String key, Map<String, String> hash) {
-		JedisPool pool = JedisPoolMap.get(dbName);
-		Jedis jedis = pool.getResource();
+	public static String setHash(final String dbName, final String key, final Map<String, String> hash) {
 		try {
-			return jedis.hmset(key, hash);
+			return execute(dbName, "HMSET", key, new JedisAction<String>() {
+				@Override
+				public String execute(Jedis jedis) {
+					String result = jedis.hmset(key, hash);
+					invalidateNearCache(dbName, jedis, Collections.singletonList(key));
+					return result;
+				}
+			});
 		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			if (jedis != null)
-				jedis.close();
+			LogUtil.error(e, "redis写入哈希表失败:" + dbName + "，key:" + key);
 		}
 		return null;
 	}
 
-	private static final String setHashLua = "for i=1,#ARGV,3 do redis.call('HSET',ARGV[i],ARGV[i+1],ARGV[i+2]); end;";
+	private static final JedisScript setHashLua = new JedisScript("for i=1,#KEYS do redis.call('HSET',KEYS[i],ARGV[i*2-1],ARGV[i*2]); end;");
 
 	/**
 	 * 写入哈希表（基于Lua）
@@ -417,27 +1160,15 @@ public class JedisUtil {
 	 * @return
 	 */
 	public static boolean setHashX(String jedisName, List<String> keyList, List<String> fieldList, List<String> valueList) {
-		JedisPool pool = JedisPoolMap.get(jedisName);
-		Jedis jedis = pool.getResource();
 		if (keyList == null || fieldList == null || valueList == null)
 			return false;
 		if (keyList.size() != fieldList.size() || keyList.size() != valueList.size())
 			return false;
 		try {
-			List<String> paramList = new LinkedList<String>();
-			for (int i = 0; i < keyList.size(); i++) {
-				paramList.add(keyList.get(i));
-				paramList.add(fieldList.get(i));
-				paramList.add(valueList.get(i));
-			}
-			String[] params = paramList.toArray(new String[paramList.size()]);
-			jedis.eval(setHashLua, 0, params);
+			evalByShard(jedisName, setHashLua, keyList, Arrays.asList(fieldList, valueList), true);
 			return true;
 		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			if (jedis != null)
-				jedis.close();
+			LogUtil.error(e, "redis写入哈希表失败:" + jedisName);
 		}
 		return false;
 	}
@@ -450,21 +1181,35 @@ public class JedisUtil {
 	 * @param fieldList-field数组
 	 * @return
 	 */
-	public static List<String> getHash(String dbName, String key, List<String> fieldList) {
-		JedisPool pool = JedisPoolMap.get(dbName);
-		Jedis jedis = pool.getResource();
+	@SuppressWarnings("unchecked")
+	public static List<String> getHash(final String dbName, final String key, final List<String> fieldList) {
+		JedisNearCache nearCache = nearCacheMap.get(dbName);
+		String view = null;
+		long generation = 0;
+		if (nearCache != null) {
+			view = "hmget" + JedisNearCache.SEPARATOR + String.join(JedisNearCache.SEPARATOR, fieldList);
+			Object value = nearCache.get(key, view);
+			if (value != null)
+				return value == JedisNearCache.NULL ? null : new ArrayList<String>((List<String>) value);
+			generation = nearCache.getGeneration();
+		}
 		try {
-			return jedis.hmget(key, fieldList.toArray(new String[fieldList.size()]));
+			List<String> value = execute(dbName, "HMGET", key, new JedisAction<List<String>>() {
+				@Override
+				public List<String> execute(Jedis jedis) {
+					return jedis.hmget(key, fieldList.toArray(new String[fieldList.size()]));
+				}
+			});
+			if (nearCache != null)
+				nearCache.put(key, view, value == null ? null : new ArrayList<String>(value), generation);
+			return value;
 		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			if (jedis != null)
-				jedis.close();
+			LogUtil.error(e, "redis查询哈希表失败:" + dbName + "，key:" + key);
 		}
 		return null;
 	}
 
-	private static final String getHashLua = "local list={};for i=1,#ARGV,2 do local element=redis.call('HGET',ARGV[i],ARGV[i+1]); if element then table.insert(list,tostring(element)); else table.insert(list,'NULL'); end;end;return list";
+	private static final JedisScript getHashLua = new JedisScript("local list={};for i=1,#KEYS do local element=redis.call('HGET',KEYS[i],ARGV[i]); if element then table.insert(list,tostring(element)); else table.insert(list,'NULL'); end;end;return list");
 
 	/**
 	 * 查询哈希表（基于Lua）
@@ -474,23 +1219,11 @@ public class JedisUtil {
 	 * @param fieldList-field数组，一一对应
 	 * @return
 	 */
-	@SuppressWarnings("unchecked")
 	public static List<String> getHashX(String dbName, List<String> keyList, List<String> fieldList) {
-		JedisPool pool = JedisPoolMap.get(dbName);
-		Jedis jedis = pool.getResource();
 		try {
-			List<String> paramList = new LinkedList<String>();
-			for (int i = 0; i < keyList.size(); i++) {
-				paramList.add(keyList.get(i));
-				paramList.add(fieldList.get(i));
-			}
-			String[] params = paramList.toArray(new String[paramList.size()]);
-			return (List<String>) jedis.eval(getHashLua, 0, params);
+			return evalByShard(dbName, getHashLua, keyList, Arrays.asList(fieldList), false);
 		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			if (jedis != null)
-				jedis.close();
+			LogUtil.error(e, "redis查询哈希表失败:" + dbName);
 		}
 		return null;
 	}
@@ -502,16 +1235,28 @@ public class JedisUtil {
 	 * @param key-key名
 	 * @return
 	 */
-	public static Map<String, String> getHashAll(String dbName, String key) {
-		JedisPool pool = JedisPoolMap.get(dbName);
-		Jedis jedis = pool.getResource();
+	@SuppressWarnings("unchecked")
+	public static Map<String, String> getHashAll(final String dbName, final String key) {
+		JedisNearCache nearCache = nearCacheMap.get(dbName);
+		long generation = 0;
+		if (nearCache != null) {
+			Object value = nearCache.get(key, "hgetall");
+			if (value != null)
+				return value == JedisNearCache.NULL ? null : new HashMap<String, String>((Map<String, String>) value);
+			generation = nearCache.getGeneration();
+		}
 		try {
-			return jedis.hgetAll(key);
+			Map<String, String> value = execute(dbName, "HGETALL", key, new JedisAction<Map<String, String>>() {
+				@Override
+				public Map<String, String> execute(Jedis jedis) {
+					return jedis.hgetAll(key);
+				}
+			});
+			if (nearCache != null)
+				nearCache.put(key, "hgetall", value == null ? null : new HashMap<String, String>(value), generation);
+			return value;
 		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			if (jedis != null)
-				jedis.close();
+			LogUtil.error(e, "redis查询哈希表失败:" + dbName + "，key:" + key);
 		}
 		return null;
 	}
@@ -523,24 +1268,198 @@ public class JedisUtil {
 	 * @param key-key名
 	 * @return
 	 */
-	public static List<String> getHashAllValues(String dbName, String key) {
-		JedisPool pool = (JedisPool) JedisPoolMap.get(dbName);
-		Jedis jedis = pool.getResource();
+	public static List<String> getHashAllValues(final String dbName, final String key) {
 		try {
-			return jedis.hvals(key);
+			return execute(dbName, "HVALS", key, new JedisAction<List<String>>() {
+				@Override
+				public List<String> execute(Jedis jedis) {
+					return jedis.hvals(key);
+				}
+			});
 		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			if (jedis != null)
-				jedis.close();
+			LogUtil.error(e, "redis查询哈希表失败:" + dbName + "，key:" + key);
+		}
+		return null;
+	}
+
+	/**
+	 * 存储二进制数据
+	 * 
+	 * @param dbName-数据库名称
+	 * @param key-key名
+	 * @param value-数据内容
+	 */
+	public static String setBytes(final String dbName, final String key, final byte[] value) {
+		try {
+			return execute(dbName, "SET", key, new JedisAction<String>() {
+				@Override
+				public String execute(Jedis jedis) {
+					String result = jedis.set(key.getBytes(StandardCharsets.UTF_8), value);
+					invalidateNearCache(dbName, jedis, Collections.singletonList(key));
+					return result;
+				}
+			});
+		} catch (Exception e) {
+			LogUtil.error(e, "redis存储二进制失败:" + dbName + "，key:" + key);
+		}
+		return null;
+	}
+
+	/**
+	 * 查询二进制数据
+	 * 
+	 * @param dbName-数据库名称
+	 * @param key-key名
+	 * @return
+	 */
+	public static byte[] getBytes(final String dbName, final String key) {
+		try {
+			return execute(dbName, "GET", key, new JedisAction<byte[]>() {
+				@Override
+				public byte[] execute(Jedis jedis) {
+					return jedis.get(key.getBytes(StandardCharsets.UTF_8));
+				}
+			});
+		} catch (Exception e) {
+			LogUtil.error(e, "redis查询二进制失败:" + dbName + "，key:" + key);
+		}
+		return null;
+	}
+
+	/**
+	 * 编码后存储对象
+	 * 
+	 * @param dbName-数据库名称
+	 * @param key-key名
+	 * @param value-对象
+	 * @param codec-编解码，如JedisCodec.protobuf、JedisCodec.json
+	 */
+	public static <T> String setObject(String dbName, String key, T value, JedisCodec<T> codec) {
+		try {
+			return setBytes(dbName, key, codec.encode(value));
+		} catch (Exception e) {
+			LogUtil.error(e, "redis存储对象失败:" + dbName + "，key:" + key);
+		}
+		return null;
+	}
+
+	/**
+	 * 查询并解码对象
+	 * 
+	 * @param dbName-数据库名称
+	 * @param key-key名
+	 * @param codec-编解码
+	 * @return
+	 */
+	public static <T> T getObject(String dbName, String key, JedisCodec<T> codec) {
+		try {
+			byte[] bytes = getBytes(dbName, key);
+			return bytes == null ? null : codec.decode(bytes);
+		} catch (Exception e) {
+			LogUtil.error(e, "redis查询对象失败:" + dbName + "，key:" + key);
+		}
+		return null;
+	}
+
+	/**
+	 * 写入二进制哈希表
+	 * 
+	 * @param dbName-数据库名称
+	 * @param key-key名
+	 * @param hash-哈希表
+	 * @return
+	 */
+	public static String setHashBytes(final String dbName, final String key, final Map<String, byte[]> hash) {
+		try {
+			return execute(dbName, "HMSET", key, new JedisAction<String>() {
+				@Override
+				public String execute(Jedis jedis) {
+					Map<byte[], byte[]> byteHash = new HashMap<byte[], byte[]>();
+					for (Map.Entry<String, byte[]> entry : hash.entrySet())
+						byteHash.put(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue());
+					String result = jedis.hmset(key.getBytes(StandardCharsets.UTF_8), byteHash);
+					invalidateNearCache(dbName, jedis, Collections.singletonList(key));
+					return result;
+				}
+			});
+		} catch (Exception e) {
+			LogUtil.error(e, "redis写入哈希表失败:" + dbName + "，key:" + key);
+		}
+		return null;
+	}
+
+	/**
+	 * 查询二进制哈希表
+	 * 
+	 * @param dbName-数据库名称
+	 * @param key-key名
+	 * @param fieldList-field数组
+	 * @return 与field一一对应，不存在时为null
+	 */
+	public static List<byte[]> getHashBytes(final String dbName, final String key, final List<String> fieldList) {
+		try {
+			return execute(dbName, "HMGET", key, new JedisAction<List<byte[]>>() {
+				@Override
+				public List<byte[]> execute(Jedis jedis) {
+					byte[][] fields = new byte[fieldList.size()][];
+					for (int i = 0; i < fields.length; i++)
+						fields[i] = fieldList.get(i).getBytes(StandardCharsets.UTF_8);
+					return jedis.hmget(key.getBytes(StandardCharsets.UTF_8), fields);
+				}
+			});
+		} catch (Exception e) {
+			LogUtil.error(e, "redis查询哈希表失败:" + dbName + "，key:" + key);
+		}
+		return null;
+	}
+
+	/**
+	 * 编码后写入哈希表
+	 * 
+	 * @param dbName-数据库名称
+	 * @param key-key名
+	 * @param hash-哈希表
+	 * @param codec-编解码
+	 * @return
+	 */
+	public static <T> String setHashObject(String dbName, String key, Map<String, T> hash, JedisCodec<T> codec) {
+		try {
+			Map<String, byte[]> byteHash = new HashMap<String, byte[]>();
+			for (Map.Entry<String, T> entry : hash.entrySet())
+				byteHash.put(entry.getKey(), codec.encode(entry.getValue()));
+			return setHashBytes(dbName, key, byteHash);
+		} catch (Exception e) {
+			LogUtil.error(e, "redis写入哈希表失败:" + dbName + "，key:" + key);
 		}
 		return null;
 	}
 
-	private static final String setHashTableLua = "for i=1,#ARGV,3 do redis.call('HSET',ARGV[i],ARGV[i+1],ARGV[i+2]); end;";
+	/**
+	 * 查询并解码哈希表
+	 * 
+	 * @param dbName-数据库名称
+	 * @param key-key名
+	 * @param fieldList-field数组
+	 * @param codec-编解码
+	 * @return 与field一一对应，不存在时为null
+	 */
+	public static <T> List<T> getHashObject(String dbName, String key, List<String> fieldList, JedisCodec<T> codec) {
+		try {
+			List<byte[]> byteList = getHashBytes(dbName, key, fieldList);
+			if (byteList == null)
+				return null;
+			List<T> list = new ArrayList<T>(byteList.size());
+			for (byte[] bytes : byteList)
+				list.add(bytes == null ? null : codec.decode(bytes));
+			return list;
+		} catch (Exception e) {
+			LogUtil.error(e, "redis查询哈希表失败:" + dbName + "，key:" + key);
+		}
+		return null;
+	}
 
 	/**
-	 * 行存储转kv存储，写入数据（基于Lua）
+	 * 行存储转kv存储，写入数据，每个表一个哈希表，已有的列保留
 	 * 
 	 * @param dbName-数据库名称
 	 * @param key-key名
@@ -548,69 +1467,232 @@ public class JedisUtil {
 	 * @return
 	 */
 	public static boolean setHashTable(String dbName, String key, Map<String, Map<String, Object>> hashTable) {
-		JedisPool pool = JedisPoolMap.get(dbName);
-		Jedis jedis = pool.getResource();
-		try {
-			List<String> list = new LinkedList<String>();
-			for (String tablekey : hashTable.keySet()) {
-				Map<String, Object> column = hashTable.get(tablekey);
-				for (String columnkey : column.keySet()) {
-					list.add(key);
-					list.add(tablekey + SPLIT + columnkey);
-					list.add(column.get(columnkey).toString());
-				}
-			}
-			String[] params = list.toArray(new String[list.size()]);
-			jedis.eval(setHashTableLua, 0, params);
+		return setHashTable(dbName, key, hashTable, false);
+	}
+
+	/**
+	 * 行存储转kv存储，写入数据，每个表写入{key}::::表名的哈希表，同一key的全部表在同一节点上，通过MULTI/EXEC一次写入，
+	 * 列值保留类型，支持String、Integer、Long、Short、Byte、Double、Float、Boolean、BigDecimal、BigInteger、Date、Timestamp、java.sql.Date、Time、byte[]和null，
+	 * 包含其他类型时不写入并返回false
+	 * 
+	 * @param dbName-数据库名称
+	 * @param key-key名
+	 * @param hashTable-数据哈希表
+	 * @param replace-是否先删除表中已有的列，用于整表快照
+	 * @return
+	 */
+	public static boolean setHashTable(final String dbName, final String key, final Map<String, Map<String, Object>> hashTable, final boolean replace) {
+		if (hashTable.isEmpty())
 			return true;
+		try {
+			// 在发送MULTI之前编码，遇到不支持的类型时不会留下未执行的事务
+			final Map<String, Map<String, String>> encodedTable = new LinkedHashMap<String, Map<String, String>>();
+			for (Map.Entry<String, Map<String, Object>> table : hashTable.entrySet()) {
+				Map<String, String> column = new HashMap<String, String>();
+				for (Map.Entry<String, Object> entry : table.getValue().entrySet())
+					column.put(entry.getKey(), encodeColumn(entry.getValue()));
+				encodedTable.put(table.getKey(), column);
+			}
+			return execute(dbName, "HMSET", getTableKey(key, hashTable.keySet().iterator().next()), new JedisAction<Boolean>() {
+				@Override
+				public Boolean execute(Jedis jedis) {
+					List<String> tableKeyList = new ArrayList<String>();
+					Pipeline pipeline = jedis.pipelined();
+					pipeline.multi();
+					for (Map.Entry<String, Map<String, String>> table : encodedTable.entrySet()) {
+						String tableKey = getTableKey(key, table.getKey());
+						tableKeyList.add(tableKey);
+						if (replace)
+							pipeline.del(tableKey);
+						if (table.getValue().isEmpty())
+							continue;
+						pipeline.hmset(tableKey, table.getValue());
+					}
+					Response<List<Object>> response = pipeline.exec();
+					pipeline.sync();
+					// 事务内命令的错误不会使EXEC失败，而是作为JedisDataException出现在结果列表中，其他命令仍已执行，近端缓存照常失效
+					boolean success = true;
+					for (Object result : response.get()) {
+						if (result instanceof Exception) {
+							LogUtil.error((Exception) result, "写入表失败:" + key);
+							success = false;
+						}
+					}
+					invalidateNearCache(dbName, jedis, tableKeyList);
+					return success;
+				}
+			});
 		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			if (jedis != null)
-				jedis.close();
+			LogUtil.error(e, "redis写入表失败:" + dbName + "，key:" + key);
 		}
 		return false;
 	}
 
-	private static final String getHashTableLua = "local list={}; local resultTable=redis.call('HGETALL',ARGV[1]); for i=2,#ARGV,1 do for j=1,#resultTable,2 do local index=string.find(resultTable[j],ARGV[i]) if(index) then table.insert(list,resultTable[j]);  table.insert(list,resultTable[j+1]);  end; end; end; return list;";
-
 	/**
-	 * 行存储转kv存储，查询数据（基于Lua）
+	 * 行存储转kv存储，查询多个表的全部列，通过pipeline对各表执行HGETALL
 	 * 
 	 * @param dbName-数据库名称
 	 * @param key-key名
 	 * @param tableList-表名
-	 * @return
+	 * @return 不存在的表不包含在结果中
 	 */
-	@SuppressWarnings("unchecked")
-	public static Map<String, Map<String, Object>> getHashTable(String dbName, String key, List<String> tableList) {
-		JedisPool pool = JedisPoolMap.get(dbName);
-		Jedis jedis = pool.getResource();
-		try {
-			tableList.add(0, key);
-			String[] params = tableList.toArray(new String[tableList.size()]);
-			List<String> list = (List<String>) jedis.eval(getHashTableLua, 0, params);
-			Map<String, Map<String, Object>> map = new HashMap<String, Map<String, Object>>();
-			for (int i = 0; i < list.size() - 1; i = i + 2) {
-				String[] tableAndColumn = list.get(i).split(SPLIT);
-				String tableName = tableAndColumn[0];
-				String columnName = tableAndColumn[1];
-				String value = list.get(i + 1);
-				if (map.get(tableName) == null)
-					map.put(tableName, new HashMap<String, Object>());
-				map.get(tableName).put(columnName, value);
+	public static Map<String, Map<String, Object>> getHashTable(final String dbName, final String key, final List<String> tableList) {
+		Map<String, Map<String, Object>> map = new HashMap<String, Map<String, Object>>();
+		if (tableList.isEmpty())
+			return map;
+		try {
+			List<Map<String, String>> list = execute(dbName, "HGETALL", getTableKey(key, tableList.get(0)), new JedisAction<List<Map<String, String>>>() {
+				@Override
+				public List<Map<String, String>> execute(Jedis jedis) {
+					Pipeline pipeline = jedis.pipelined();
+					List<Response<Map<String, String>>> responseList = new ArrayList<Response<Map<String, String>>>(tableList.size());
+					for (String tableName : tableList)
+						responseList.add(pipeline.hgetAll(getTableKey(key, tableName)));
+					pipeline.sync();
+					List<Map<String, String>> list = new ArrayList<Map<String, String>>(responseList.size());
+					for (Response<Map<String, String>> response : responseList)
+						list.add(response.get());
+					return list;
+				}
+			});
+			for (int i = 0; i < tableList.size(); i++) {
+				if (list.get(i) == null || list.get(i).isEmpty())
+					continue;
+				Map<String, Object> column = new HashMap<String, Object>();
+				for (Map.Entry<String, String> entry : list.get(i).entrySet())
+					column.put(entry.getKey(), decodeColumn(entry.getValue()));
+				map.put(tableList.get(i), column);
 			}
 			return map;
 		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			if (jedis != null)
-				jedis.close();
+			LogUtil.error(e, "redis查询表失败:" + dbName + "，key:" + key);
+		}
+		return null;
+	}
+
+	/**
+	 * 行存储转kv存储，查询一个表的指定列，使用HMGET只读取需要的列
+	 * 
+	 * @param dbName-数据库名称
+	 * @param key-key名
+	 * @param tableName-表名
+	 * @param columnList-列名
+	 * @return 不存在的列不包含在结果中
+	 */
+	public static Map<String, Object> getHashTable(final String dbName, final String key, final String tableName, final List<String> columnList) {
+		Map<String, Object> map = new HashMap<String, Object>();
+		if (columnList.isEmpty())
+			return map;
+		final String tableKey = getTableKey(key, tableName);
+		try {
+			List<String> list = execute(dbName, "HMGET", tableKey, new JedisAction<List<String>>() {
+				@Override
+				public List<String> execute(Jedis jedis) {
+					return jedis.hmget(tableKey, columnList.toArray(new String[columnList.size()]));
+				}
+			});
+			for (int i = 0; i < columnList.size(); i++) {
+				if (list.get(i) != null)
+					map.put(columnList.get(i), decodeColumn(list.get(i)));
+			}
+			return map;
+		} catch (Exception e) {
+			LogUtil.error(e, "redis查询表失败:" + dbName + "，key:" + key);
 		}
 		return null;
 	}
 
-	private static final String setHincrbyLua = "local list={}; for i=1,#ARGV,3 do local element=redis.call('HINCRBY',ARGV[i],ARGV[i+1],ARGV[i+2]); end;";
+	/**
+	 * 表的哈希表key，key中没有{tag}时整体作为哈希标签，使同一key的全部表在同一分片和slot
+	 */
+	private static String getTableKey(String key, String tableName) {
+		String tag = ConsistentHash.hashTag(key);
+		return (tag.equals(key) ? "{" + key + "}" : key) + SPLIT + tableName;
+	}
+
+	/**
+	 * 列值编码为类型标记加字符串值，null只有标记，Timestamp保留纳秒，byte[]使用base64，不支持的类型抛出异常
+	 */
+	static String encodeColumn(Object value) {
+		if (value == null)
+			return "0";
+		if (value instanceof String)
+			return "s" + value;
+		if (value instanceof Integer)
+			return "i" + value;
+		if (value instanceof Long)
+			return "l" + value;
+		if (value instanceof Short)
+			return "h" + value;
+		if (value instanceof Byte)
+			return "y" + value;
+		if (value instanceof Double)
+			return "d" + value;
+		if (value instanceof Float)
+			return "f" + value;
+		if (value instanceof Boolean)
+			return "b" + value;
+		if (value instanceof BigDecimal)
+			return "n" + ((BigDecimal) value).toPlainString();
+		if (value instanceof BigInteger)
+			return "g" + value;
+		if (value instanceof Timestamp)
+			return "T" + ((Timestamp) value).getTime() + ":" + ((Timestamp) value).getNanos();
+		if (value instanceof java.sql.Date)
+			return "D" + ((java.sql.Date) value).getTime();
+		if (value instanceof Time)
+			return "m" + ((Time) value).getTime();
+		if (value instanceof Date)
+			return "t" + ((Date) value).getTime();
+		if (value instanceof byte[])
+			return "x" + CryptoUtil.byteToBase64((byte[]) value);
+		throw new IllegalArgumentException("unsupported column type: " + value.getClass().getName());
+	}
+
+	static Object decodeColumn(String value) {
+		if (value.isEmpty())
+			return value;
+		String content = value.substring(1);
+		switch (value.charAt(0)) {
+		case '0':
+			return null;
+		case 'i':
+			return Integer.valueOf(content);
+		case 'l':
+			return Long.valueOf(content);
+		case 'h':
+			return Short.valueOf(content);
+		case 'y':
+			return Byte.valueOf(content);
+		case 'd':
+			return Double.valueOf(content);
+		case 'f':
+			return Float.valueOf(content);
+		case 'b':
+			return Boolean.valueOf(content);
+		case 'n':
+			return new BigDecimal(content);
+		case 'g':
+			return new BigInteger(content);
+		case 'T':
+			int index = content.indexOf(':');
+			Timestamp timestamp = new Timestamp(Long.parseLong(content.substring(0, index)));
+			timestamp.setNanos(Integer.parseInt(content.substring(index + 1)));
+			return timestamp;
+		case 'D':
+			return new java.sql.Date(Long.parseLong(content));
+		case 'm':
+			return new Time(Long.parseLong(content));
+		case 't':
+			return new Date(Long.parseLong(content));
+		case 'x':
+			return CryptoUtil.base64ToByte(content);
+		default:
+			return content;
+		}
+	}
+
+	private static final JedisScript setHincrbyLua = new JedisScript("for i=1,#KEYS do redis.call('HINCRBY',KEYS[i],ARGV[i*2-1],ARGV[i*2]); end;");
 
 	/**
 	 * 哈希表计数器（基于Lua）
@@ -621,24 +1703,165 @@ public class JedisUtil {
 	 * @param countList-count数组，一一对应
 	 */
 	public static boolean setHincrby(String dbName, List<String> keyList, List<String> fieldList, List<Long> countList) {
-		JedisPool pool = JedisPoolMap.get(dbName);
-		Jedis jedis = pool.getResource();
-		try {
-			List<String> paramList = new LinkedList<String>();
-			for (int i = 0; i < keyList.size(); i++) {
-				paramList.add(keyList.get(i));
-				paramList.add(fieldList.get(i));
-				paramList.add(countList.get(i).toString());
-			}
-			String[] params = paramList.toArray(new String[paramList.size()]);
-			jedis.eval(setHincrbyLua, 0, params);
+		try {
+			evalByShard(dbName, setHincrbyLua, keyList, Arrays.asList(fieldList, countList), true);
 			return true;
 		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			if (jedis != null)
-				jedis.close();
+			LogUtil.error(e, "redis哈希表计数失败:" + dbName);
 		}
 		return false;
 	}
+
+	/**
+	 * 添加HyperLogLog元素，元素较多时分段通过pipeline发送
+	 * 
+	 * @param dbName-数据库名称
+	 * @param key-key名
+	 * @param elementList-元素
+	 * @return
+	 */
+	public static boolean addHyperLogLog(String dbName, String key, List<String> elementList) {
+		return addHyperLogLog(dbName, Collections.singletonMap(key, elementList));
+	}
+
+	/**
+	 * 批量添加多个HyperLogLog的元素，按分片并行通过pipeline发送
+	 * 
+	 * @param dbName-数据库名称
+	 * @param elementMap-key名到元素的映射
+	 * @return 是否全部成功
+	 */
+	public static boolean addHyperLogLog(String dbName, Map<String, List<String>> elementMap) {
+		JedisBatch batch = new JedisBatch();
+		for (Map.Entry<String, List<String>> entry : elementMap.entrySet()) {
+			List<String> elementList = entry.getValue();
+			for (int start = 0; start < elementList.size(); start += batchChunkSize) {
+				List<String> chunk = elementList.subList(start, Math.min(start + batchChunkSize, elementList.size()));
+				batch.pfadd(entry.getKey(), chunk.toArray(new String[chunk.size()]));
+			}
+		}
+		List<Object> resultList = executeBatch(dbName, batch);
+		return resultList != null && !resultList.contains(null);
+	}
+
+	/**
+	 * 查询HyperLogLog的基数估计值
+	 * 
+	 * @param dbName-数据库名称
+	 * @param key-key名
+	 * @return
+	 */
+	public static Long countHyperLogLog(String dbName, final String key) {
+		try {
+			return execute(dbName, "PFCOUNT", key, new JedisAction<Long>() {
+				@Override
+				public Long execute(Jedis jedis) {
+					return jedis.pfcount(key);
+				}
+			});
+		} catch (Exception e) {
+			LogUtil.error(e, "redis查询HyperLogLog失败:" + dbName);
+		}
+		return null;
+	}
+
+	/**
+	 * 查询多个HyperLogLog并集的基数估计值，分片组和集群下各key需通过{tag}位于同一分片
+	 * 
+	 * @param dbName-数据库名称
+	 * @param keyList-key数组
+	 * @return
+	 */
+	public static Long countHyperLogLog(String dbName, final List<String> keyList) {
+		try {
+			return execute(dbName, "PFCOUNT", keyList.get(0), new JedisAction<Long>() {
+				@Override
+				public Long execute(Jedis jedis) {
+					return jedis.pfcount(keyList.toArray(new String[keyList.size()]));
+				}
+			});
+		} catch (Exception e) {
+			LogUtil.error(e, "redis查询HyperLogLog失败:" + dbName);
+		}
+		return null;
+	}
+
+	/**
+	 * 合并多个HyperLogLog，分片组和集群下各key需通过{tag}位于同一分片
+	 * 
+	 * @param dbName-数据库名称
+	 * @param destKey-目标key名
+	 * @param sourceKeyList-来源key数组
+	 * @return
+	 */
+	public static String mergeHyperLogLog(String dbName, final String destKey, final List<String> sourceKeyList) {
+		try {
+			return execute(dbName, "PFMERGE", destKey, new JedisAction<String>() {
+				@Override
+				public String execute(Jedis jedis) {
+					return jedis.pfmerge(destKey, sourceKeyList.toArray(new String[sourceKeyList.size()]));
+				}
+			});
+		} catch (Exception e) {
+			LogUtil.error(e, "redis合并HyperLogLog失败:" + dbName + "，key:" + destKey);
+		}
+		return null;
+	}
+
+	/**
+	 * 按key所在分片拆分后并行执行脚本，集群按slot拆分，KEYS为该分片的key，ARGV依次为每个key在各参数列中对应下标的值
+	 * 
+	 * @param write-是否为写入，写入时使近端缓存失效并返回null，否则按key的顺序合并各分片返回的列表
+	 */
+	private static List<String> evalByShard(final String dbName, final JedisScript script, final List<String> keyList, final List<? extends List<?>> columnList, final boolean write) throws Exception {
+		final JedisClusterRouter router = clusterMap.get(dbName);
+		Map<String, List<Integer>> shardMap = splitByShard(dbName, keyList, true);
+		Map<String, Callable<List<String>>> callableMap = new LinkedHashMap<String, Callable<List<String>>>();
+		for (final Map.Entry<String, List<Integer>> entry : shardMap.entrySet()) {
+			callableMap.put(entry.getKey(), new Callable<List<String>>() {
+				@Override
+				public List<String> call() throws Exception {
+					final List<String> shardKeyList = pick(keyList, entry.getValue());
+					final List<String> paramList = new ArrayList<String>(entry.getValue().size() * columnList.size());
+					for (int index : entry.getValue()) {
+						for (List<?> column : columnList)
+							paramList.add(column.get(index).toString());
+					}
+					JedisAction<List<String>> action = new JedisAction<List<String>>() {
+						@Override
+						@SuppressWarnings("unchecked")
+						public List<String> execute(Jedis jedis) {
+							Object result = script.eval(jedis, shardKeyList, paramList);
+							if (write)
+								invalidateNearCache(dbName, jedis, new LinkedHashSet<String>(shardKeyList));
+							return result instanceof List ? (List<String>) result : null;
+						}
+					};
+					JedisMetrics metrics = metricsMap.get(dbName);
+					long start = System.nanoTime();
+					Exception error = null;
+					try {
+						if (router != null)
+							return router.execute(Integer.parseInt(entry.getKey()), action, metrics);
+						return execute(JedisPoolMap.get(entry.getKey()), action, metrics);
+					} catch (RuntimeException e) {
+						error = e;
+						throw e;
+					} finally {
+						recordMetrics(dbName, "EVALSHA " + script.getSha1(), shardKeyList.get(0), start, error);
+					}
+				}
+			});
+		}
+		Map<String, List<String>> resultMap = executeShards(callableMap);
+		if (write)
+			return null;
+		String[] results = new String[keyList.size()];
+		for (Map.Entry<String, List<Integer>> entry : shardMap.entrySet()) {
+			List<String> shardResult = resultMap.get(entry.getKey());
+			for (int i = 0; i < entry.getValue().size(); i++)
+				results[entry.getValue().get(i)] = shardResult.get(i);
+		}
+		return new ArrayList<String>(Arrays.asList(results));
+	}
 }
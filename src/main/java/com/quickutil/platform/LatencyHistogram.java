@@ -0,0 +1,90 @@
+/**
+ * 耗时直方图，按2的幂划分微秒级区间，无锁记录
+ *
+ * @class LatencyHistogram
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public class LatencyHistogram {
+
+	private static final int BUCKETS = 40;
+
+	private final AtomicLongArray bucketArray = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sumMicros = new LongAdder();
+	private final AtomicLong maxMicros = new AtomicLong();
+
+	/**
+	 * 记录一次耗时
+	 *
+	 * @param nanos-耗时(纳秒)
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		bucketArray.incrementAndGet(bucket);
+		count.increment();
+		sumMicros.add(micros);
+		long max = maxMicros.get();
+		while (micros > max && !maxMicros.compareAndSet(max, micros))
+			max = maxMicros.get();
+	}
+
+	/**
+	 * 记录次数
+	 *
+	 * @return
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * 估算分位数，返回所在区间的上界
+	 *
+	 * @param quantile-分位，如0.99
+	 * @return 耗时(毫秒)
+	 */
+	public double getPercentile(double quantile) {
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = bucketArray.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0)
+			return 0;
+		long threshold = (long) Math.ceil(total * quantile);
+		long cumulative = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			cumulative += snapshot[i];
+			if (cumulative >= threshold)
+				return Math.min(1L << i, maxMicros.get()) / 1000.0;
+		}
+		return maxMicros.get() / 1000.0;
+	}
+
+	/**
+	 * 获取统计快照，耗时单位为毫秒
+	 *
+	 * @return
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		long total = count.sum();
+		map.put("count", total);
+		map.put("mean", total == 0 ? 0 : sumMicros.sum() / 1000.0 / total);
+		map.put("p50", getPercentile(0.5));
+		map.put("p90", getPercentile(0.9));
+		map.put("p99", getPercentile(0.99));
+		map.put("max", maxMicros.get() / 1000.0);
+		return map;
+	}
+}
@@ -0,0 +1,98 @@
+/**
+ * ConsistentHash单元测试
+ *
+ * @class ConsistentHashTest
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ConsistentHashTest {
+
+	private static final List<String> nodeList = Arrays.asList("db0", "db1", "db2", "db3");
+
+	@Test
+	public void hashTag() {
+		assertEquals("user", ConsistentHash.hashTag("{user}:1"));
+		assertEquals("user", ConsistentHash.hashTag("order:{user}:{item}"));
+		assertEquals("{}:1", ConsistentHash.hashTag("{}:1"));
+		assertEquals("user:1", ConsistentHash.hashTag("user:1"));
+		assertEquals("{user:1", ConsistentHash.hashTag("{user:1"));
+		assertEquals("}user{", ConsistentHash.hashTag("}user{"));
+	}
+
+	@Test
+	public void emptyRing() {
+		ConsistentHash<String> hash = new ConsistentHash<String>(Collections.<String>emptyList(), 160);
+		assertNull(hash.get("key"));
+		assertTrue(hash.getNodes().isEmpty());
+	}
+
+	@Test
+	public void stableAcrossInstances() {
+		ConsistentHash<String> hash1 = new ConsistentHash<String>(nodeList, 160);
+		List<String> reversed = new ArrayList<String>(nodeList);
+		Collections.reverse(reversed);
+		ConsistentHash<String> hash2 = new ConsistentHash<String>(reversed, 160);
+		for (int i = 0; i < 1000; i++)
+			assertEquals(hash1.get("key" + i), hash2.get("key" + i));
+		assertEquals(nodeList, hash1.getNodes());
+	}
+
+	@Test
+	public void taggedKeysColocate() {
+		ConsistentHash<String> hash = new ConsistentHash<String>(nodeList, 160);
+		for (int i = 0; i < 100; i++) {
+			String node = hash.get("{user" + i + "}");
+			assertEquals(node, hash.get("{user" + i + "}:profile"));
+			assertEquals(node, hash.get("order:{user" + i + "}:" + i));
+			assertEquals(node, hash.get("user" + i));
+		}
+	}
+
+	@Test
+	public void distribution() {
+		ConsistentHash<String> hash = new ConsistentHash<String>(nodeList, 160);
+		Map<String, Integer> countMap = new HashMap<String, Integer>();
+		int total = 40000;
+		for (int i = 0; i < total; i++) {
+			String node = hash.get("key" + i);
+			Integer count = countMap.get(node);
+			countMap.put(node, count == null ? 1 : count + 1);
+		}
+		assertEquals(nodeList.size(), countMap.size());
+		for (int count : countMap.values())
+			assertTrue("unbalanced: " + countMap, count > total / nodeList.size() * 0.7 && count < total / nodeList.size() * 1.3);
+	}
+
+	@Test
+	public void addingNodeOnlyMovesKeysToIt() {
+		ConsistentHash<String> hash = new ConsistentHash<String>(nodeList, 160);
+		List<String> grownList = new ArrayList<String>(nodeList);
+		grownList.add("db4");
+		ConsistentHash<String> grown = new ConsistentHash<String>(grownList, 160);
+		int moved = 0;
+		int total = 10000;
+		for (int i = 0; i < total; i++) {
+			String before = hash.get("key" + i);
+			String after = grown.get("key" + i);
+			if (!before.equals(after)) {
+				assertEquals("db4", after);
+				moved++;
+			}
+		}
+		assertTrue("moved: " + moved, moved > total / 10 && moved < total * 3 / 10);
+	}
+}
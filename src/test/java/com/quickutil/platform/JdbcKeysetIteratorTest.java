@@ -0,0 +1,77 @@
+/**
+ * JdbcKeysetIterator单元测试，只验证分页语句生成和键值读取，不依赖数据库
+ *
+ * @class JdbcKeysetIteratorTest
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class JdbcKeysetIteratorTest {
+
+	@Test
+	public void firstPage() {
+		JdbcKeysetIterator iterator = new JdbcKeysetIterator("test", "user", Arrays.asList("id"), null, Collections.emptyList(), 100);
+		List<Object> params = new ArrayList<Object>();
+		assertEquals("select * from user order by id limit 100", iterator.buildSql(null, params));
+		assertEquals(Collections.emptyList(), params);
+	}
+
+	@Test
+	public void nextPageSingleKey() {
+		JdbcKeysetIterator iterator = new JdbcKeysetIterator("test", "user", Arrays.asList("id"), "status = ?", Arrays.<Object>asList(1), 100);
+		List<Object> params = new ArrayList<Object>();
+		assertEquals("select * from user where (status = ?) and ((id > ?)) order by id limit 100", iterator.buildSql(Arrays.<Object>asList(42L), params));
+		assertEquals(Arrays.<Object>asList(1, 42L), params);
+	}
+
+	@Test
+	public void nextPageCompositeKey() {
+		JdbcKeysetIterator iterator = new JdbcKeysetIterator("test", "orders", Arrays.asList("uid", "day", "id"), " ", Collections.emptyList(), 10);
+		List<Object> params = new ArrayList<Object>();
+		String sql = iterator.buildSql(Arrays.<Object>asList(7, "2017-01-01", 3), params);
+		assertEquals("select * from orders where ((uid > ?) or (uid = ? and day > ?) or (uid = ? and day = ? and id > ?)) order by uid,day,id limit 10", sql);
+		assertEquals(Arrays.<Object>asList(7, 7, "2017-01-01", 7, "2017-01-01", 3), params);
+	}
+
+	@Test
+	public void getKeyValue() {
+		Map<String, Object> row = new HashMap<String, Object>();
+		row.put("ID", 5L);
+		row.put("name", "a");
+		assertEquals(5L, JdbcKeysetIterator.getKeyValue(row, "ID"));
+		assertEquals(5L, JdbcKeysetIterator.getKeyValue(row, "`user`.`id`"));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void getKeyValueMissing() {
+		Map<String, Object> row = new HashMap<String, Object>();
+		row.put("name", "a");
+		JdbcKeysetIterator.getKeyValue(row, "id");
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void getKeyValueNull() {
+		Map<String, Object> row = new HashMap<String, Object>();
+		row.put("id", null);
+		JdbcKeysetIterator.getKeyValue(row, "id");
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void getKeyValueAmbiguous() {
+		Map<String, Object> row = new HashMap<String, Object>();
+		row.put("a.Id", 1);
+		row.put("b.ID", 2);
+		JdbcKeysetIterator.getKeyValue(row, "id");
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * JdbcQueryCache单元测试，只使用进程内缓存，不依赖数据库和redis
+ *
+ * @class JdbcQueryCacheTest
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class JdbcQueryCacheTest {
+
+	private static JdbcQueryCache newCache() {
+		return new JdbcQueryCache("test", 1024 * 1024, 60000, null);
+	}
+
+	private static List<Map<String, Object>> newResult(Object value) {
+		Map<String, Object> row = new HashMap<String, Object>();
+		row.put("id", value);
+		List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+		list.add(row);
+		return list;
+	}
+
+	@Test
+	public void getKeyCollapsesWhitespace() {
+		JdbcQueryCache cache = newCache();
+		String key = cache.getKey("  select *\n\tfrom  user\r\nwhere id = ?  ", null);
+		assertEquals("select * from user where id = ?", key);
+		assertEquals(key, cache.getKey("select * from user where id = ?", new Object[0]));
+	}
+
+	@Test
+	public void getKeyKeepsQuotedWhitespace() {
+		JdbcQueryCache cache = newCache();
+		assertEquals("select * from user where name = 'a  b'", cache.getKey("select *  from user where name = 'a  b'", null));
+		assertEquals("select * from `my  table` where name = \"x\\\"  y\"", cache.getKey("select * from `my  table` where name = \"x\\\"  y\"", null));
+		assertNotEquals(cache.getKey("select 'a b'", null), cache.getKey("select 'a  b'", null));
+	}
+
+	@Test
+	public void getKeyAppendsParams() {
+		JdbcQueryCache cache = newCache();
+		assertEquals("select * from user where id = ?\n[1]", cache.getKey("select * from user where id = ?", new Object[] { 1 }));
+		assertEquals("select ?\n[[1, 2]]", cache.getKey("select ?", new Object[] { new int[] { 1, 2 } }));
+		assertNotEquals(cache.getKey("select ?", new Object[] { 1 }), cache.getKey("select ?", new Object[] { 2 }));
+	}
+
+	@Test
+	public void getReadTables() {
+		assertEquals(new LinkedHashSet<String>(Arrays.asList("user", "orders")), JdbcQueryCache.getReadTables("select * from `db`.`User` u join orders o on u.id = o.uid"));
+		assertEquals(new LinkedHashSet<String>(Arrays.asList("a", "b")), JdbcQueryCache.getReadTables("SELECT * FROM a, b WHERE a.id = b.id"));
+		assertEquals(new LinkedHashSet<String>(), JdbcQueryCache.getReadTables("select 1"));
+	}
+
+	@Test
+	public void putAndGet() {
+		JdbcQueryCache cache = newCache();
+		String sql = "select * from user";
+		String key = cache.getKey(sql, null);
+		cache.put(key, sql, cache.getGeneration(), cache.getVersions(sql), newResult(1));
+		List<Map<String, Object>> list = cache.get(key, sql, cache.getVersions(sql));
+		assertNotNull(list);
+		assertEquals(1, list.get(0).get("id"));
+		list.get(0).put("id", 2);
+		assertEquals(1, cache.get(key, sql, cache.getVersions(sql)).get(0).get("id"));
+	}
+
+	@Test
+	public void invalidateByWrittenTable() {
+		JdbcQueryCache cache = newCache();
+		String userSql = "select * from user";
+		String orderSql = "select * from orders";
+		cache.put(userSql, userSql, cache.getGeneration(), "", newResult(1));
+		cache.put(orderSql, orderSql, cache.getGeneration(), "", newResult(2));
+		cache.invalidateSql("update `User` set name = 'x' where id = 1");
+		assertNull(cache.get(userSql, userSql, ""));
+		assertNotNull(cache.get(orderSql, orderSql, ""));
+		cache.invalidateSql("select * from orders");
+		assertNotNull(cache.get(orderSql, orderSql, ""));
+		cache.invalidateSql("call refresh_all()");
+		assertNull(cache.get(orderSql, orderSql, ""));
+	}
+
+	@Test
+	public void putSkippedAfterConcurrentInvalidate() {
+		JdbcQueryCache cache = newCache();
+		String sql = "select * from user";
+		long generation = cache.getGeneration();
+		cache.invalidateSql("delete from user");
+		cache.put(sql, sql, generation, "", newResult(1));
+		assertNull(cache.get(sql, sql, ""));
+	}
+
+	@Test
+	public void getRejectsMismatchedVersions() {
+		JdbcQueryCache cache = newCache();
+		String sql = "select * from user";
+		cache.put(sql, sql, cache.getGeneration(), "\nuser=1", newResult(1));
+		assertNull(cache.get(sql, sql, null));
+		assertNull(cache.get(sql, sql, "\nuser=2"));
+		assertNull(cache.get(sql, sql, "\nuser=1"));
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * JedisBloomFilter单元测试，只验证哈希和位置计算，不依赖redis
+ *
+ * @class JedisBloomFilterTest
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class JedisBloomFilterTest {
+
+	private static long[] murmur3(String content) {
+		return JedisBloomFilter.murmur3(content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void murmur3KnownVectors() {
+		assertArrayEquals(new long[] { 0L, 0L }, murmur3(""));
+		assertArrayEquals(new long[] { 0x629942693e10f867L, 0x92db0b82baeb5347L }, murmur3("hell"));
+		assertArrayEquals(new long[] { 0xcbd8a7b341bd9b02L, 0x5b1e906a48ae1d19L }, murmur3("hello"));
+		assertArrayEquals(new long[] { 0xe34bbc7bbc071b6cL, 0x7a433ca9c49a9347L }, murmur3("The quick brown fox jumps over the lazy dog"));
+	}
+
+	@Test
+	public void sizing() {
+		JedisBloomFilter filter = new JedisBloomFilter("test", "bloom", 1000, 0.01);
+		assertEquals(9586, filter.getBitSize());
+		assertEquals(7, filter.getHashCount());
+		filter = new JedisBloomFilter("test", "bloom", 0, 0.01);
+		assertEquals(64, filter.getBitSize());
+		filter = new JedisBloomFilter("test", "bloom", 1000000000000L, 0.01);
+		assertEquals(1L << 32, filter.getBitSize());
+	}
+
+	@Test
+	public void offsetsUseDoubleHashing() {
+		JedisBloomFilter filter = new JedisBloomFilter("test", "bloom", 1000, 0.01);
+		long[] hash = murmur3("hello");
+		long[] offsets = filter.getOffsets("hello");
+		assertEquals(filter.getHashCount(), offsets.length);
+		for (int i = 0; i < offsets.length; i++)
+			assertEquals(((hash[0] + i * hash[1]) & Long.MAX_VALUE) % filter.getBitSize(), offsets[i]);
+		assertArrayEquals(offsets, new JedisBloomFilter("test", "other", 1000, 0.01).getOffsets("hello"));
+	}
+
+	@Test
+	public void offsetsInRange() {
+		JedisBloomFilter filter = new JedisBloomFilter("test", "bloom", 100, 0.001);
+		Set<Long> offsetSet = new HashSet<Long>();
+		for (int i = 0; i < 10000; i++) {
+			for (long offset : filter.getOffsets("element" + i)) {
+				assertTrue(offset >= 0 && offset < filter.getBitSize());
+				offsetSet.add(offset);
+			}
+		}
+		assertEquals(filter.getBitSize(), offsetSet.size());
+	}
+}
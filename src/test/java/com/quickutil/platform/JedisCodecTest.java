@@ -0,0 +1,118 @@
+/**
+ * JedisCodec单元测试
+ *
+ * @class JedisCodecTest
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.gson.reflect.TypeToken;
+
+public class JedisCodecTest {
+
+	private static final JedisCodec<String> stringCodec = new JedisCodec<String>() {
+		@Override
+		public byte[] encode(String value) {
+			return value.getBytes(StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public String decode(byte[] bytes, int offset, int length) {
+			return new String(bytes, offset, length, StandardCharsets.UTF_8);
+		}
+	};
+
+	private static final JedisCodec<byte[]> bytesCodec = new JedisCodec<byte[]>() {
+		@Override
+		public byte[] encode(byte[] value) {
+			return value;
+		}
+
+		@Override
+		public byte[] decode(byte[] bytes, int offset, int length) {
+			return Arrays.copyOfRange(bytes, offset, offset + length);
+		}
+	};
+
+	private static String repeat(String content, int count) {
+		StringBuilder sb = new StringBuilder(content.length() * count);
+		for (int i = 0; i < count; i++)
+			sb.append(content);
+		return sb.toString();
+	}
+
+	@Test
+	public void deflateBelowThresholdIsRaw() {
+		JedisCodec<String> codec = JedisCodec.deflate(stringCodec, 64);
+		byte[] bytes = codec.encode("hello");
+		assertEquals(6, bytes.length);
+		assertEquals(0, bytes[0]);
+		assertEquals("hello", codec.decode(bytes));
+	}
+
+	@Test
+	public void deflateAboveThresholdIsCompressed() {
+		JedisCodec<String> codec = JedisCodec.deflate(stringCodec, 64);
+		String value = repeat("数据库缓存abc", 1000);
+		byte[] bytes = codec.encode(value);
+		assertEquals(1, bytes[0]);
+		assertTrue(bytes.length < value.length());
+		assertEquals(value, codec.decode(bytes));
+	}
+
+	@Test
+	public void deflateIncompressibleFallsBackToRaw() {
+		JedisCodec<byte[]> codec = JedisCodec.deflate(bytesCodec, 16);
+		byte[] value = new byte[4096];
+		new Random(1).nextBytes(value);
+		byte[] bytes = codec.encode(value);
+		assertEquals(0, bytes[0]);
+		assertEquals(value.length + 1, bytes.length);
+		assertArrayEquals(value, codec.decode(bytes));
+	}
+
+	@Test
+	public void decodeWithOffset() {
+		JedisCodec<String> codec = JedisCodec.deflate(stringCodec, 64);
+		for (String value : Arrays.asList("short", repeat("long value ", 500))) {
+			byte[] encoded = codec.encode(value);
+			byte[] bytes = new byte[encoded.length + 7];
+			Arrays.fill(bytes, (byte) 0x7F);
+			System.arraycopy(encoded, 0, bytes, 3, encoded.length);
+			assertEquals(value, codec.decode(bytes, 3, encoded.length));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void decodeTruncatedCompressedData() {
+		JedisCodec<String> codec = JedisCodec.deflate(stringCodec, 64);
+		byte[] bytes = codec.encode(repeat("abc", 1000));
+		codec.decode(bytes, 0, bytes.length / 2);
+	}
+
+	@Test
+	public void jsonRoundTrip() {
+		JedisCodec<Map<String, List<Integer>>> codec = JedisCodec.json(new TypeToken<Map<String, List<Integer>>>() {
+		}.getType());
+		Map<String, List<Integer>> value = new HashMap<String, List<Integer>>();
+		value.put("中文", Arrays.asList(1, 2, 3));
+		byte[] bytes = codec.encode(value);
+		assertEquals("{\"中文\":[1,2,3]}", new String(bytes, StandardCharsets.UTF_8));
+		assertEquals(value, codec.decode(bytes));
+		value.put("empty", Arrays.<Integer>asList());
+		assertEquals(value, JedisCodec.deflate(codec, 0).decode(JedisCodec.deflate(codec, 0).encode(value)));
+	}
+}
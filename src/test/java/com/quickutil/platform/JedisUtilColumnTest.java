@@ -0,0 +1,96 @@
+/**
+ * JedisUtil表缓存列值编解码单元测试
+ *
+ * @class JedisUtilColumnTest
+ * @author 0.5
+ */
+package com.quickutil.platform;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Test;
+
+public class JedisUtilColumnTest {
+
+	private static Object roundTrip(Object value) {
+		return JedisUtil.decodeColumn(JedisUtil.encodeColumn(value));
+	}
+
+	@Test
+	public void scalarRoundTrip() {
+		for (Object value : Arrays.<Object>asList("", "s", "0", "中文:{x}", 1, -1L, Long.MAX_VALUE, (short) 7, (byte) -3, 1.5d, Double.NaN, 2.5f, true, false, new BigDecimal("1E+3"), new BigDecimal("-0.000100"), new BigInteger("123456789012345678901234567890"))) {
+			Object decoded = roundTrip(value);
+			assertEquals(value.getClass(), decoded.getClass());
+			if (value instanceof BigDecimal)
+				assertEquals(0, ((BigDecimal) value).compareTo((BigDecimal) decoded));
+			else
+				assertEquals(value, decoded);
+		}
+	}
+
+	@Test
+	public void nullRoundTrip() {
+		assertEquals("0", JedisUtil.encodeColumn(null));
+		assertNull(JedisUtil.decodeColumn("0"));
+	}
+
+	@Test
+	public void stringIsNotConfusedWithTypeMarker() {
+		assertEquals("s0", JedisUtil.encodeColumn("0"));
+		assertEquals("si1", JedisUtil.encodeColumn("i1"));
+		assertEquals("i1", roundTrip("i1"));
+	}
+
+	@Test
+	public void timestampKeepsNanos() {
+		Timestamp timestamp = Timestamp.valueOf("2017-05-01 12:34:56.123456789");
+		Object decoded = roundTrip(timestamp);
+		assertEquals(Timestamp.class, decoded.getClass());
+		assertEquals(timestamp, decoded);
+		assertEquals(123456789, ((Timestamp) decoded).getNanos());
+		Timestamp before1970 = Timestamp.valueOf("1969-12-31 23:59:59.5");
+		assertEquals(before1970, roundTrip(before1970));
+	}
+
+	@Test
+	public void dateTypesKeepClass() {
+		java.sql.Date sqlDate = java.sql.Date.valueOf("2017-05-01");
+		Time time = Time.valueOf("12:34:56");
+		Date date = new Date(1493613296789L);
+		assertSame(java.sql.Date.class, roundTrip(sqlDate).getClass());
+		assertEquals(sqlDate, roundTrip(sqlDate));
+		assertSame(Time.class, roundTrip(time).getClass());
+		assertEquals(time, roundTrip(time));
+		assertSame(Date.class, roundTrip(date).getClass());
+		assertEquals(date, roundTrip(date));
+	}
+
+	@Test
+	public void bytesRoundTrip() {
+		byte[] bytes = new byte[256];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) i;
+		assertArrayEquals(bytes, (byte[]) roundTrip(bytes));
+		assertArrayEquals(new byte[0], (byte[]) roundTrip(new byte[0]));
+	}
+
+	@Test
+	public void legacyValueWithoutMarker() {
+		assertEquals("", JedisUtil.decodeColumn(""));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unsupportedType() {
+		JedisUtil.encodeColumn(new Object());
+	}
+}